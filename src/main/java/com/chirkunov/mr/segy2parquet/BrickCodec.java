@@ -0,0 +1,93 @@
+/**
+ * Codec of the brick payload for the brick layout
+ * A brick is a dense (iline, xline, sample) block of float32 samples, sample axis varies fastest:
+ * index = (ilineInBrick * xlineBrickSize + xlineInBrick) * sampleBrickSize + sampleInBrick.
+ * Samples are stored little-endian and deflate-compressed, so a brick can be decoded on its own.
+ * Cells without a trace are zero.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the brick samples
+ */
+public class BrickCodec {
+
+    // byte order of brick samples
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private final byte[] chunk = new byte[64 * 1024];
+    private ByteBuffer raw = ByteBuffer.allocate(0).order(BYTE_ORDER);
+
+    /**
+     * Compresses brick samples
+     * @param samples brick samples
+     * @param length number of samples
+     * @return compressed brick payload
+     */
+    public byte[] encode(float[] samples, int length) {
+        if (raw.capacity() < length * Float.BYTES) {
+            raw = ByteBuffer.allocate(length * Float.BYTES).order(BYTE_ORDER);
+        }
+        raw.clear();
+        raw.asFloatBuffer().put(samples, 0, length);
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, length * Float.BYTES);
+        deflater.finish();
+        compressed.reset();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            compressed.write(chunk, 0, n);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Decompresses brick payload
+     * @param payload compressed brick payload
+     * @param length number of samples in the brick
+     * @return brick samples
+     * @throws IOException
+     */
+    public static float[] decode(byte[] payload, int length) throws IOException {
+        byte[] bytes = new byte[length * Float.BYTES];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            int n = 0;
+            while (n < bytes.length && !inflater.finished()) {
+                int count = inflater.inflate(bytes, n, bytes.length - n);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += count;
+            }
+            if (n != bytes.length) {
+                throw new IOException("Truncated brick payload: " + n + " of " + bytes.length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted brick payload", e);
+        } finally {
+            inflater.end();
+        }
+        float[] samples = new float[length];
+        ByteBuffer.wrap(bytes).order(BYTE_ORDER).asFloatBuffer().get(samples);
+        return samples;
+    }
+
+    /**
+     * Releases native resources of the compressor
+     */
+    public void close() {
+        deflater.end();
+    }
+}
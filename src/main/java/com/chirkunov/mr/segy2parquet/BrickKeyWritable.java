@@ -0,0 +1,111 @@
+/**
+ * Map output key for the brick layout: position of a brick in the brick grid
+ * Bricks are aligned to multiples of the brick size along every axis
+ * (inline, crossline, sample), so the grid does not depend on the survey origin.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Custom writable key of a brick
+ */
+public class BrickKeyWritable implements WritableComparable<BrickKeyWritable> {
+
+    private int brickIline;
+    private int brickXline;
+    private int brickSample;
+
+    public BrickKeyWritable() {
+        brickIline = 0;
+        brickXline = 0;
+        brickSample = 0;
+    }
+
+    /**
+     * Returns a brick number along the inline axis
+     * @return brickIline
+     */
+    public int getBrickIline() {
+        return brickIline;
+    }
+
+    /**
+     * Returns a brick number along the crossline axis
+     * @return brickXline
+     */
+    public int getBrickXline() {
+        return brickXline;
+    }
+
+    /**
+     * Returns a brick number along the sample (time) axis
+     * @return brickSample
+     */
+    public int getBrickSample() {
+        return brickSample;
+    }
+
+    /**
+     * Initialize key
+     * @param brickIline brick number along the inline axis
+     * @param brickXline brick number along the crossline axis
+     * @param brickSample brick number along the sample axis
+     */
+    public void set(int brickIline, int brickXline, int brickSample) {
+        this.brickIline = brickIline;
+        this.brickXline = brickXline;
+        this.brickSample = brickSample;
+    }
+
+    @Override
+    public void write(DataOutput dataOutput) throws IOException {
+        dataOutput.writeInt(brickIline);
+        dataOutput.writeInt(brickXline);
+        dataOutput.writeInt(brickSample);
+    }
+
+    @Override
+    public void readFields(DataInput dataInput) throws IOException {
+        brickIline = dataInput.readInt();
+        brickXline = dataInput.readInt();
+        brickSample = dataInput.readInt();
+    }
+
+    /**
+     * Compare keys by inline, crossline, then sample brick numbers
+     * @param o: BrickKeyWritable instance to compare
+     * @return negative if less, zero if is equal to, positive if greater
+     */
+    @Override
+    public int compareTo(BrickKeyWritable o) {
+        int res = Integer.compare(brickIline, o.brickIline);
+        if (res == 0) {
+            res = Integer.compare(brickXline, o.brickXline);
+        }
+        return (res != 0) ? res : Integer.compare(brickSample, o.brickSample);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BrickKeyWritable)) {
+            return false;
+        }
+        BrickKeyWritable other = (BrickKeyWritable) o;
+        return brickIline == other.brickIline && brickXline == other.brickXline && brickSample == other.brickSample;
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * brickIline + brickXline) * 31 + brickSample;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BrickKey(iline=%d, xline=%d, sample=%d)", brickIline, brickXline, brickSample);
+    }
+}
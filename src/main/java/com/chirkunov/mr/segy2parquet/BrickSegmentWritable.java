@@ -0,0 +1,108 @@
+/**
+ * Map output value for the brick layout: the part of a trace which falls into one brick
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Custom writable for a trace segment inside a brick
+ */
+public class BrickSegmentWritable implements Writable {
+
+    private int ilineID;
+    private int xlineID;
+    private float[] samples;
+    private int length;
+
+    public BrickSegmentWritable() {
+        ilineID = 0;
+        xlineID = 0;
+        samples = new float[0];
+        length = 0;
+    }
+
+    /**
+     * Returns an inline id of the trace
+     * @return ilineID
+     */
+    public int getILineID() {
+        return ilineID;
+    }
+
+    /**
+     * Returns an xline id of the trace
+     * @return xlineID
+     */
+    public int getXLineID() {
+        return xlineID;
+    }
+
+    /**
+     * Returns samples buffer, only first getLength() samples are valid
+     * @return
+     */
+    public float[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns number of samples in the segment
+     * @return
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Initialize segment from a range of trace data samples
+     * @param ilineID inline id
+     * @param xlineID xline id
+     * @param traceData trace data samples
+     * @param from first sample (inclusive)
+     * @param to last sample (exclusive)
+     */
+    public void set(int ilineID, int xlineID, double[] traceData, int from, int to) {
+        this.ilineID = ilineID;
+        this.xlineID = xlineID;
+        this.length = to - from;
+        if (samples.length < length) {
+            samples = new float[length];
+        }
+        for (int i = 0; i < length; i++) {
+            samples[i] = (float) traceData[from + i];
+        }
+    }
+
+    @Override
+    public void write(DataOutput dataOutput) throws IOException {
+        dataOutput.writeInt(ilineID);
+        dataOutput.writeInt(xlineID);
+        dataOutput.writeInt(length);
+        for (int i = 0; i < length; i++) {
+            dataOutput.writeFloat(samples[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput dataInput) throws IOException {
+        ilineID = dataInput.readInt();
+        xlineID = dataInput.readInt();
+        length = dataInput.readInt();
+        if (samples.length < length) {
+            samples = new float[length];
+        }
+        for (int i = 0; i < length; i++) {
+            samples[i] = dataInput.readFloat();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BrickSegment(iline=%d, xline=%d, length=%d)", ilineID, xlineID, length);
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ * Tuning of the Parquet output settings of ConverterJob on a sample of the input traces
+ * It reads a few thousand traces spread over the input splits and writes them in memory, as TraceGroup rows
+ * the way the job does, with every candidate configuration: compression codec, dictionary encoding on/off and page size.
+ * Dictionary encoding is one switch for all columns: Parquet 1.11 has no per-column dictionary setting
+ * (parquet.enable.dictionary#column needs parquet-mr 1.12), so e.g. traceData off and the header columns on
+ * cannot be configured or measured. Codec levels are not tuned: Parquet keeps one codec instance
+ * per codec in the JVM, so all levels of a codec would be measured with the first one. Codecs which are not available (e.g. without the native
+ * Hadoop library) are skipped. The configuration that meets the objective is set into the job
+ * configuration and recorded in the footer metadata of the output (see TraceGroupWriteSupport):
+ *  - size: the smallest output among the candidates written at least at the minimal throughput
+ *  - throughput: the fastest candidate among the ones within the size ratio of the smallest output
+ * Usage: CodecTuner <SEGY input folder> [-D settings]
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetOutputFormat;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+/**
+ * Tuner of the output codec, dictionary encoding and page size
+ */
+public class CodecTuner extends Configured implements Tool {
+
+    // Setting to tune the output settings before the conversion (see ConverterJob)
+    public static final String TUNE_SETTING = "com.chirkunov.mr.segy2parquet.TUNE";
+    // Setting of the number of sampled traces
+    public static final String TUNE_TRACES_SETTING = "com.chirkunov.mr.segy2parquet.TUNE_TRACES";
+    public static final int DEFAULT_TUNE_TRACES = 2000;
+    // Setting of the candidate codecs, comma-separated codec names; zstd runs at the level of the job configuration
+    public static final String TUNE_CODECS_SETTING = "com.chirkunov.mr.segy2parquet.TUNE_CODECS";
+    public static final String DEFAULT_TUNE_CODECS = "SNAPPY,ZSTD,GZIP,LZ4";
+    // Setting of the candidate page sizes in bytes
+    public static final String TUNE_PAGE_SIZES_SETTING = "com.chirkunov.mr.segy2parquet.TUNE_PAGE_SIZES";
+    public static final String DEFAULT_TUNE_PAGE_SIZES = "65536,1048576,4194304";
+    // Setting of the objective: size or throughput
+    public static final String TUNE_OBJECTIVE_SETTING = "com.chirkunov.mr.segy2parquet.TUNE_OBJECTIVE";
+    public static final String OBJECTIVE_SIZE = "size";
+    public static final String OBJECTIVE_THROUGHPUT = "throughput";
+    // Setting of the minimal write throughput of the size objective, MB/s of decoded samples
+    public static final String TUNE_MIN_THROUGHPUT_SETTING = "com.chirkunov.mr.segy2parquet.TUNE_MIN_THROUGHPUT";
+    // Setting of the maximal output size of the throughput objective, relative to the smallest output
+    public static final String TUNE_MAX_SIZE_RATIO_SETTING = "com.chirkunov.mr.segy2parquet.TUNE_MAX_SIZE_RATIO";
+    public static final double DEFAULT_TUNE_MAX_SIZE_RATIO = 1.25;
+    // Setting where the chosen configuration is recorded for the output metadata
+    public static final String TUNING_SETTING = "com.chirkunov.mr.segy2parquet.TUNING";
+    // number of splits the sample is spread over
+    private static final int MAX_SAMPLED_SPLITS = 16;
+    // writes per candidate
+    private static final int MEASURE_REPEATS = 2;
+    private static final double MB = 1024 * 1024;
+
+    /**
+     * Candidate output configuration and its measurements
+     */
+    public static class Candidate {
+        private final CompressionCodecName codec;
+        private final boolean dictionary;
+        private final int pageSize;
+        private long bytes;
+        private long nanos;
+
+        Candidate(CompressionCodecName codec, boolean dictionary, int pageSize) {
+            this.codec = codec;
+            this.dictionary = dictionary;
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * Sets the output settings of the candidate
+         * @param conf job configuration
+         */
+        public void apply(Configuration conf) {
+            conf.set(ParquetOutputFormat.COMPRESSION, codec.name());
+            conf.setBoolean(ParquetOutputFormat.ENABLE_DICTIONARY, dictionary);
+            conf.setInt(ParquetOutputFormat.PAGE_SIZE, pageSize);
+        }
+
+        @Override
+        public String toString() {
+            return "codec=" + codec + ",dictionary=" + dictionary + ",pageSize=" + pageSize;
+        }
+    }
+
+    /**
+     * Tunes the output settings of the configured conversion job and sets the chosen ones into its configuration
+     * @param job conversion job with the input paths and the input format set
+     * @return chosen candidate
+     * @throws IOException
+     * @throws IllegalArgumentException
+     */
+    public static Candidate tune(Job job) throws IOException, InterruptedException, IllegalArgumentException {
+        Configuration conf = job.getConfiguration();
+        String layout = conf.get(TraceGroupWriteSupport.OUTPUT_LAYOUT_SETTING, TraceGroupWriteSupport.LAYOUT_TRACE);
+        // rows are sampled in the trace layout only
+        if (!TraceGroupWriteSupport.LAYOUT_TRACE.equals(layout)) {
+            throw new IllegalArgumentException("Not supported tuning for the layout: " + layout);
+        }
+        String objective = conf.get(TUNE_OBJECTIVE_SETTING, OBJECTIVE_SIZE);
+        if (!OBJECTIVE_SIZE.equals(objective) && !OBJECTIVE_THROUGHPUT.equals(objective)) {
+            throw new IllegalArgumentException("Not supported tuning objective: " + objective);
+        }
+        List<TraceWritable> rows = new ArrayList<TraceWritable>();
+        long sampleBytes = sample(job, conf.getInt(TUNE_TRACES_SETTING, DEFAULT_TUNE_TRACES), rows);
+        if (rows.isEmpty()) {
+            throw new IOException("No traces to tune the output settings on");
+        }
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        for (String item : conf.getTrimmedStrings(TUNE_CODECS_SETTING, DEFAULT_TUNE_CODECS.split(","))) {
+            if (item.contains(":")) {
+                throw new IllegalArgumentException("Not supported codec level: " + item
+                        + ", set the level in the job configuration (e.g. " + CommonConfigurationKeys.IO_COMPRESSION_CODEC_ZSTD_LEVEL_KEY + ")");
+            }
+            CompressionCodecName codec = CompressionCodecName.valueOf(item.toUpperCase());
+            for (String pageSize : conf.getTrimmedStrings(TUNE_PAGE_SIZES_SETTING, DEFAULT_TUNE_PAGE_SIZES.split(","))) {
+                candidates.add(new Candidate(codec, true, Integer.parseInt(pageSize)));
+                candidates.add(new Candidate(codec, false, Integer.parseInt(pageSize)));
+            }
+        }
+
+        // warm-up write, so that the first candidate is not penalized by JIT compilation
+        measure(conf, new Candidate(CompressionCodecName.UNCOMPRESSED, true, ParquetWriter.DEFAULT_PAGE_SIZE), rows);
+        System.out.println(String.format("sampled %d traces, %.1f MB of samples", rows.size(), sampleBytes / MB));
+        System.out.println(String.format("%-10s %10s %10s %12s %10s", "codec", "dictionary", "pageSize", "bytes/trace", "MB/s"));
+        List<Candidate> measured = new ArrayList<Candidate>();
+        Set<CompressionCodecName> unavailable = new HashSet<CompressionCodecName>();
+        for (Candidate c : candidates) {
+            if (unavailable.contains(c.codec)) {
+                continue;
+            }
+            try {
+                measure(conf, c, rows);
+            } catch (RuntimeException | IOException | LinkageError e) {
+                // codec is not available, e.g. it needs the native Hadoop library
+                unavailable.add(c.codec);
+                System.out.println(String.format("%-10s skipped: %s", c.codec, e.getMessage()));
+                continue;
+            }
+            measured.add(c);
+            System.out.println(String.format("%-10s %10s %10d %12.0f %10.1f", c.codec,
+                    c.dictionary, c.pageSize, (double) c.bytes / rows.size(), throughput(c, sampleBytes)));
+        }
+        if (measured.isEmpty()) {
+            throw new IOException("None of the candidate codecs is available: " + conf.get(TUNE_CODECS_SETTING, DEFAULT_TUNE_CODECS));
+        }
+
+        Candidate best = choose(measured, objective, sampleBytes, conf);
+        best.apply(conf);
+        String choice = String.format("%s,objective=%s,bytesPerTrace=%.0f,mbPerSecond=%.1f",
+                best, objective, (double) best.bytes / rows.size(), throughput(best, sampleBytes));
+        conf.set(TUNING_SETTING, choice);
+        System.out.println("chosen: " + choice);
+        return best;
+    }
+
+    /**
+     * Chooses the candidate by the objective; if no candidate meets the constraint, the constraint is dropped
+     */
+    private static Candidate choose(List<Candidate> measured, String objective, long sampleBytes, Configuration conf) {
+        Candidate best = null;
+        if (OBJECTIVE_SIZE.equals(objective)) {
+            double minThroughput = conf.getDouble(TUNE_MIN_THROUGHPUT_SETTING, 0);
+            for (Candidate c : measured) {
+                if (throughput(c, sampleBytes) >= minThroughput && (best == null || c.bytes < best.bytes)) {
+                    best = c;
+                }
+            }
+            if (best == null) {
+                System.out.println(String.format("no candidate reaches %.1f MB/s, choosing the fastest one", minThroughput));
+                for (Candidate c : measured) {
+                    if (best == null || c.nanos < best.nanos) {
+                        best = c;
+                    }
+                }
+            }
+        } else {
+            long smallest = Long.MAX_VALUE;
+            for (Candidate c : measured) {
+                smallest = Math.min(smallest, c.bytes);
+            }
+            double maxBytes = smallest * conf.getDouble(TUNE_MAX_SIZE_RATIO_SETTING, DEFAULT_TUNE_MAX_SIZE_RATIO);
+            for (Candidate c : measured) {
+                if (c.bytes <= maxBytes && (best == null || c.nanos < best.nanos)) {
+                    best = c;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static double throughput(Candidate c, long sampleBytes) {
+        return sampleBytes / MB / (c.nanos / 1e9);
+    }
+
+    /**
+     * Reads up to the given number of traces spread over the input splits, keeps a copy of every trace
+     * @return decoded size of the sampled trace samples in bytes
+     */
+    private static long sample(Job job, int maxTraces, List<TraceWritable> rows) throws IOException, InterruptedException {
+        Configuration conf = job.getConfiguration();
+        SEGYInputFormat inputFormat = new SEGYInputFormat();
+        // sampling plans its own splits, without staging the survey header table of the job
+        Job planning = Job.getInstance(new Configuration(conf));
+        planning.getConfiguration().unset(SurveyHeaderTable.TABLE_SETTING);
+        List<InputSplit> splits = inputFormat.getSplits(planning);
+        int nSplits = Math.min(splits.size(), MAX_SAMPLED_SPLITS);
+        long sampleBytes = 0;
+        for (int i = 0; i < nSplits; i++) {
+            InputSplit split = splits.get((int) ((long) i * splits.size() / nSplits));
+            int perSplit = (maxTraces - rows.size()) / (nSplits - i);
+            TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+            try (RecordReader<TraceHeaderWritable, TraceWritable> reader = inputFormat.createRecordReader(split, context)) {
+                reader.initialize(split, context);
+                for (int n = 0; n < perSplit && reader.nextKeyValue(); n++) {
+                    TraceWritable tw = reader.getCurrentValue();
+                    // the reader reuses its trace
+                    rows.add(WritableUtils.clone(tw, conf));
+                    sampleBytes += (long) tw.getTraceLength() * Double.BYTES;
+                }
+            }
+        }
+        return sampleBytes;
+    }
+
+    /**
+     * Writes the traces in memory with the candidate settings, measures the output size and the write time
+     * Rows are built as in the map tasks of the trace layout: a reused TraceGroup view, quantized if the job quantizes
+     */
+    private static void measure(Configuration jobConf, Candidate c, List<TraceWritable> rows) throws IOException {
+        Configuration conf = new Configuration(jobConf);
+        c.apply(conf);
+        TraceQuantizer quantizer = TraceQuantizer.forEncoding(conf.get(ConverterJob.SAMPLE_ENCODING_SETTING, ConverterJob.DEFAULT_SAMPLE_ENCODING),
+                conf.getDouble(ConverterJob.QUANT_MAX_ERROR_SETTING, ConverterJob.DEFAULT_QUANT_MAX_ERROR));
+        TraceGroup row = new TraceGroup();
+        CountingOutputFile file = new CountingOutputFile();
+        c.nanos = Long.MAX_VALUE;
+        // the best of the repeated writes, so that JIT compilation and GC pauses do not decide the choice
+        for (int i = 0; i < MEASURE_REPEATS; i++) {
+            long start = System.nanoTime();
+            try (ParquetWriter<Group> writer = new TraceGroupWriteSupport.Builder(file)
+                    .withConf(conf)
+                    .withCompressionCodec(c.codec)
+                    .withDictionaryEncoding(c.dictionary)
+                    .withPageSize(c.pageSize)
+                    .build()) {
+                for (TraceWritable tw : rows) {
+                    writer.write(row.set(tw.getTraceHeader(), tw, quantizer));
+                }
+            }
+            c.nanos = Math.min(c.nanos, System.nanoTime() - start);
+        }
+        c.bytes = file.bytes;
+    }
+
+    /**
+     * OutputFile which only counts the written bytes
+     */
+    private static class CountingOutputFile implements OutputFile {
+
+        private long bytes;
+
+        @Override
+        public PositionOutputStream create(long blockSizeHint) {
+            bytes = 0;
+            return new PositionOutputStream() {
+                @Override
+                public long getPos() {
+                    return bytes;
+                }
+
+                @Override
+                public void write(int b) {
+                    bytes++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    bytes += len;
+                }
+            };
+        }
+
+        @Override
+        public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+            return create(blockSizeHint);
+        }
+
+        @Override
+        public boolean supportsBlockSize() {
+            return false;
+        }
+
+        @Override
+        public long defaultBlockSize() {
+            return 0;
+        }
+    }
+
+    public int run(String[] args) throws Exception {
+        Job job = Job.getInstance(getConf(), "Tuning Parquet output settings");
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        tune(job);
+        return 0;
+    }
+
+    /**
+     * Main entry point to tune the output settings without running the conversion
+     * @param args: args[0] - job input folder (with SEGY files)
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CodecTuner <SEGY input folder> [-D settings]");
+            System.exit(2);
+        }
+        System.exit(ToolRunner.run(new Configuration(), new CodecTuner(), args));
+    }
+}
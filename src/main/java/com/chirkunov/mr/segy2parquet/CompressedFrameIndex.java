@@ -0,0 +1,545 @@
+/**
+ * Seek-point index of a compressed SEGY file
+ * A compressed file is a sequence of independently decodable frames: gzip members (e.g. bgzip/pigz output,
+ * or gzip files concatenated together) or zstd frames (plain multi-frame or the seekable zstd format).
+ * The index maps the uncompressed offset of every frame start to its compressed offset, so a reader
+ * can start decompressing at the frame which holds a given trace instead of at the file start.
+ * BGZF block sizes, zstd frame content sizes and the seekable zstd seek table are read without
+ * decompressing. Other gzip members (e.g. an ordinary single-member .sgy.gz) are inflated once and get
+ * zran-style checkpoints every GZIP_CHECKPOINT_SPACING uncompressed bytes: the bit offset of a deflate block
+ * start plus the 32 KB window preceding it, from which DeflateDecoder resumes. The windows are kept in the
+ * cached index file, so only the offsets are loaded at planning time.
+ * Files of other codecs, and zstd frames without content size, cannot be indexed and are rejected.
+ * The index is built once per file and cached next to it as a hidden file (see TraceIndex).
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frame index of a compressed SEGY file
+ */
+public class CompressedFrameIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompressedFrameIndex.class);
+
+    // magic number of the cached index file ("CFIX")
+    private static final int INDEX_MAGIC = 0x43464958;
+    // index file version
+    private static final int INDEX_VERSION = 2;
+    // footer of the index file: table position and magic number
+    private static final int INDEX_FOOTER_SIZE = 12;
+    // suffix of the cached index file
+    private static final String INDEX_SUFFIX = ".cfidx";
+
+    // gzip member header
+    private static final int GZIP_MAGIC = 0x1f8b;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int GZIP_FHCRC = 2;
+    private static final int GZIP_FEXTRA = 4;
+    private static final int GZIP_FNAME = 8;
+    private static final int GZIP_FCOMMENT = 16;
+    // zstd frames (little-endian magic numbers)
+    private static final int ZSTD_MAGIC = 0xFD2FB528;
+    private static final int ZSTD_SKIPPABLE_MAGIC = 0x184D2A50;
+    private static final int ZSTD_SKIPPABLE_MASK = 0xFFFFFFF0;
+    private static final int ZSTD_SEEKABLE_MAGIC = 0x8F92EAB1;
+    private static final int ZSTD_SEEKABLE_FOOTER_SIZE = 9;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long[] compressedOffsets;
+    private final byte[] bitOffsets;
+    private final long[] uncompressedOffsets;
+    private final long[] windowPositions;
+    private final int[] windowLengths;
+    private final long uncompressedLength;
+    // cached index file which holds the checkpoint windows
+    private final Path path;
+
+    private CompressedFrameIndex(long[] compressedOffsets, byte[] bitOffsets, long[] uncompressedOffsets,
+                                 long[] windowPositions, int[] windowLengths, long uncompressedLength, Path path) {
+        this.compressedOffsets = compressedOffsets;
+        this.bitOffsets = bitOffsets;
+        this.uncompressedOffsets = uncompressedOffsets;
+        this.windowPositions = windowPositions;
+        this.windowLengths = windowLengths;
+        this.uncompressedLength = uncompressedLength;
+        this.path = path;
+    }
+
+    /**
+     * Returns number of indexed frames
+     * @return
+     */
+    public int size() {
+        return compressedOffsets.length;
+    }
+
+    /**
+     * Returns compressed file offset of the i-th frame
+     * @param i frame number (from 0)
+     * @return
+     */
+    public long compressedOffset(int i) {
+        return compressedOffsets[i];
+    }
+
+    /**
+     * Returns number of bits of the first byte of the i-th frame which belong to the previous deflate block,
+     * 0 for frames which start at a byte (gzip member or zstd frame starts)
+     * @param i frame number (from 0)
+     * @return
+     */
+    public int bitOffset(int i) {
+        return bitOffsets[i];
+    }
+
+    /**
+     * True if the i-th frame is a checkpoint inside a gzip member, which is resumed with its window
+     * @param i frame number (from 0)
+     * @return
+     */
+    public boolean isCheckpoint(int i) {
+        return windowPositions[i] >= 0;
+    }
+
+    /**
+     * Reads the window of the i-th checkpoint from the cached index file
+     * @param fs file system of the index
+     * @param i frame number (from 0)
+     * @return uncompressed bytes preceding the checkpoint
+     * @throws IOException
+     */
+    public byte[] readWindow(FileSystem fs, int i) throws IOException {
+        byte[] window = new byte[windowLengths[i]];
+        try (FSDataInputStream in = fs.open(path)) {
+            in.readFully(windowPositions[i], window);
+        }
+        return window;
+    }
+
+    /**
+     * Returns uncompressed offset of the i-th frame start
+     * @param i frame number (from 0)
+     * @return
+     */
+    public long uncompressedOffset(int i) {
+        return uncompressedOffsets[i];
+    }
+
+    /**
+     * Returns size of the uncompressed SEGY
+     * @return
+     */
+    public long uncompressedLength() {
+        return uncompressedLength;
+    }
+
+    /**
+     * Returns number of the frame which holds the uncompressed offset
+     * @param offset uncompressed offset
+     * @return frame number
+     */
+    public int frameOf(long offset) {
+        int i = Arrays.binarySearch(uncompressedOffsets, offset);
+        // frames of zero size share the offset, the last one of them is taken
+        if (i >= 0) {
+            while (i + 1 < uncompressedOffsets.length && uncompressedOffsets[i + 1] == offset) {
+                i++;
+            }
+            return i;
+        }
+        return Math.max(0, -i - 2);
+    }
+
+    /**
+     * Returns a path of the cached index for the compressed SEGY file
+     * @param file compressed SEGY file
+     * @return
+     */
+    public static Path indexPath(Path file) {
+        return new Path(file.getParent(), "." + file.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Loads the cached index if it is still valid for the file, otherwise scans the file and caches the result
+     * @param fs file system
+     * @param file compressed SEGY file status
+     * @param spacing uncompressed bytes between checkpoints inside gzip members
+     * @return frame index
+     * @throws IOException
+     * @throws IllegalArgumentException if the file is neither gzip nor zstd with frame content sizes
+     */
+    public static CompressedFrameIndex loadOrBuild(FileSystem fs, FileStatus file, long spacing) throws IOException {
+        Path idxPath = indexPath(file.getPath());
+        CompressedFrameIndex index = load(fs, idxPath, file, spacing);
+        if (index != null) {
+            return index;
+        }
+        FSDataOutputStream out;
+        try {
+            out = fs.create(idxPath, true);
+        } catch (IOException e) {
+            // read-only input location: the index is still usable for this job, but the checkpoint
+            // windows have nowhere to go, so gzip members are read from their starts
+            LOG.warn("Unable to cache frame index " + idxPath + ", gzip members are not split: " + e.getMessage());
+            return build(fs, file, spacing, null, null);
+        }
+        boolean saved = false;
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(file.getLen());
+            out.writeLong(file.getModificationTime());
+            out.writeLong(spacing);
+            // windows are written while scanning, the frame table follows them
+            index = build(fs, file, spacing, out, idxPath);
+            index.writeTable(out);
+            saved = true;
+        } finally {
+            out.close();
+            if (!saved) {
+                fs.delete(idxPath, false);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Scans compressed file frame by frame
+     * @param fs file system
+     * @param file compressed SEGY file status
+     * @param spacing uncompressed bytes between checkpoints inside gzip members
+     * @param windows stream of the index file to store the checkpoint windows in, null for no checkpoints
+     * @param idxPath index file of the windows stream
+     * @return frame index
+     * @throws IOException
+     * @throws IllegalArgumentException if the file is neither gzip nor zstd with frame content sizes
+     */
+    public static CompressedFrameIndex build(FileSystem fs, FileStatus file, long spacing,
+                                             FSDataOutputStream windows, Path idxPath) throws IOException {
+        try (FSDataInputStream stream = fs.open(file.getPath())) {
+            byte[] magic = new byte[4];
+            if (file.getLen() >= magic.length) {
+                stream.readFully(0, magic);
+                ByteBuffer bb = ByteBuffer.wrap(magic);
+                if ((bb.getShort(0) & 0xFFFF) == GZIP_MAGIC) {
+                    return buildGzip(stream, file.getLen(), spacing, windows).toIndex(idxPath);
+                } else if (bb.order(ByteOrder.LITTLE_ENDIAN).getInt(0) == ZSTD_MAGIC) {
+                    return buildZstd(stream, file.getLen(), file.getPath()).toIndex(idxPath);
+                }
+            }
+        }
+        // decompressing the whole file just to learn its size would not give any seek point either
+        throw new IllegalArgumentException("Not supported compressed SEGY " + file.getPath()
+                + ": only gzip and zstd files can be split, recompress it with gzip, bgzip or zstd");
+    }
+
+    /**
+     * Indexes gzip members, hopping over BGZF blocks by their block size and inflating other members,
+     * with checkpoints at the deflate blocks which start spacing bytes after the previous frame
+     */
+    private static FrameList buildGzip(FSDataInputStream stream, long length, long spacing,
+                                       FSDataOutputStream windows) throws IOException {
+        FrameList frames = new FrameList();
+        byte[] out = new byte[BUFFER_SIZE];
+        long pos = 0;
+        long uncompressed = 0;
+        while (pos + GZIP_HEADER_SIZE + GZIP_TRAILER_SIZE <= length) {
+            long[] header = readGzipHeader(stream, pos);
+            if (header == null) {
+                // trailing garbage (e.g. zero padding) is ignored, like gzip does
+                break;
+            }
+            frames.add(pos, 0, uncompressed, -1, 0);
+            long blockSize = header[1];
+            if (blockSize > 0) {
+                // BGZF: compressed block size from the header, uncompressed size from the trailer (ISIZE)
+                byte[] isize = new byte[4];
+                stream.readFully(pos + blockSize - isize.length, isize);
+                uncompressed += ByteBuffer.wrap(isize).order(ByteOrder.LITTLE_ENDIAN).getInt() & 0xFFFFFFFFL;
+                pos += blockSize;
+                continue;
+            }
+            long dataStart = pos + header[0];
+            stream.seek(dataStart);
+            DeflateDecoder decoder = new DeflateDecoder(stream);
+            long lastFrame = 0;
+            try {
+                do {
+                    if (windows != null && decoder.isBlockBoundary() && decoder.getBytesWritten() - lastFrame >= spacing) {
+                        long bit = dataStart * 8 + decoder.getBitsRead();
+                        byte[] window = decoder.getWindow();
+                        frames.add(bit >>> 3, (int) (bit & 7), uncompressed + decoder.getBytesWritten(),
+                                windows.getPos(), window.length);
+                        windows.write(window);
+                        lastFrame = decoder.getBytesWritten();
+                    }
+                } while (decoder.read(out) >= 0);
+            } catch (EOFException e) {
+                throw new EOFException("Truncated gzip member at " + pos);
+            }
+            uncompressed += decoder.getBytesWritten();
+            pos = dataStart + (decoder.getBitsRead() + 7) / 8 + GZIP_TRAILER_SIZE;
+        }
+        frames.end(uncompressed);
+        return frames;
+    }
+
+    /**
+     * Reads gzip member header
+     * @return header size and BGZF block size (0 for other members), null if there is no member at the offset
+     */
+    private static long[] readGzipHeader(FSDataInputStream in, long pos) throws IOException {
+        in.seek(pos);
+        byte[] fixed = new byte[GZIP_HEADER_SIZE];
+        in.readFully(fixed);
+        ByteBuffer bb = ByteBuffer.wrap(fixed);
+        if ((bb.getShort(0) & 0xFFFF) != GZIP_MAGIC || fixed[2] != 8) {
+            return null;
+        }
+        int flags = fixed[3];
+        long size = GZIP_HEADER_SIZE;
+        long blockSize = 0;
+        if ((flags & GZIP_FEXTRA) != 0) {
+            int xlen = Short.reverseBytes(in.readShort()) & 0xFFFF;
+            byte[] extra = new byte[xlen];
+            in.readFully(extra);
+            size += 2 + xlen;
+            ByteBuffer xb = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+            // subfields: SI1, SI2, LEN, data; BGZF stores BSIZE (block size - 1) in the "BC" subfield
+            while (xb.remaining() >= 4) {
+                byte si1 = xb.get();
+                byte si2 = xb.get();
+                int len = xb.getShort() & 0xFFFF;
+                if (si1 == 'B' && si2 == 'C' && len == 2 && xb.remaining() >= 2) {
+                    blockSize = (xb.getShort(xb.position()) & 0xFFFF) + 1;
+                }
+                xb.position(Math.min(xb.limit(), xb.position() + len));
+            }
+        }
+        if ((flags & GZIP_FNAME) != 0) {
+            while (in.readByte() != 0) {
+                size++;
+            }
+            size++;
+        }
+        if ((flags & GZIP_FCOMMENT) != 0) {
+            while (in.readByte() != 0) {
+                size++;
+            }
+            size++;
+        }
+        if ((flags & GZIP_FHCRC) != 0) {
+            in.readShort();
+            size += 2;
+        }
+        return new long[]{size, blockSize};
+    }
+
+    /**
+     * Indexes zstd frames by the seek table of the seekable format, or by the frame headers
+     * @throws IllegalArgumentException if a frame does not declare its content size
+     */
+    private static FrameList buildZstd(FSDataInputStream stream, long length, Path file) throws IOException {
+        FrameList frames = new FrameList();
+        if (length >= ZSTD_SEEKABLE_FOOTER_SIZE) {
+            byte[] footer = new byte[ZSTD_SEEKABLE_FOOTER_SIZE];
+            stream.readFully(length - footer.length, footer);
+            ByteBuffer fb = ByteBuffer.wrap(footer).order(ByteOrder.LITTLE_ENDIAN);
+            if (fb.getInt(5) == ZSTD_SEEKABLE_MAGIC) {
+                int nFrames = fb.getInt(0);
+                int entrySize = ((footer[4] & 0x80) != 0) ? 12 : 8;
+                byte[] table = new byte[nFrames * entrySize];
+                stream.readFully(length - footer.length - table.length, table);
+                ByteBuffer tb = ByteBuffer.wrap(table).order(ByteOrder.LITTLE_ENDIAN);
+                long pos = 0;
+                long uncompressed = 0;
+                for (int i = 0; i < nFrames; i++) {
+                    frames.add(pos, 0, uncompressed, -1, 0);
+                    pos += tb.getInt(i * entrySize) & 0xFFFFFFFFL;
+                    uncompressed += tb.getInt(i * entrySize + 4) & 0xFFFFFFFFL;
+                }
+                frames.end(uncompressed);
+                return frames;
+            }
+        }
+
+        byte[] word = new byte[8];
+        ByteBuffer wb = ByteBuffer.wrap(word).order(ByteOrder.LITTLE_ENDIAN);
+        long pos = 0;
+        long uncompressed = 0;
+        while (pos + 4 <= length) {
+            stream.readFully(pos, word, 0, 4);
+            int magic = wb.getInt(0);
+            if ((magic & ZSTD_SKIPPABLE_MASK) == ZSTD_SKIPPABLE_MAGIC) {
+                stream.readFully(pos + 4, word, 0, 4);
+                pos += 8 + (wb.getInt(0) & 0xFFFFFFFFL);
+                continue;
+            }
+            if (magic != ZSTD_MAGIC) {
+                throw new IOException("Not a zstd frame at " + pos);
+            }
+            // frame header: descriptor, [window descriptor], [dictionary id], [frame content size]
+            stream.readFully(pos + 4, word, 0, 1);
+            int descriptor = word[0] & 0xFF;
+            boolean singleSegment = ((descriptor >> 5) & 1) != 0;
+            boolean checksum = ((descriptor >> 2) & 1) != 0;
+            int dictIdSize = new int[]{0, 1, 2, 4}[descriptor & 3];
+            int fcsFlag = descriptor >> 6;
+            int fcsSize = (fcsFlag == 0) ? (singleSegment ? 1 : 0) : new int[]{0, 2, 4, 8}[fcsFlag];
+            if (fcsSize == 0) {
+                throw new IllegalArgumentException("Not supported zstd frame without content size at " + pos
+                        + " in " + file + ": recompress it with content sizes (zstd default) or in the seekable format");
+            }
+            long fcsPos = pos + 5 + (singleSegment ? 0 : 1) + dictIdSize;
+            Arrays.fill(word, (byte) 0);
+            stream.readFully(fcsPos, word, 0, fcsSize);
+            long contentSize = wb.getLong(0);
+            if (fcsSize == 2) {
+                contentSize += 256;
+            }
+            // blocks: 3-byte header (last flag, type, size), then the block content
+            long blockPos = fcsPos + fcsSize;
+            boolean last = false;
+            while (!last) {
+                stream.readFully(blockPos, word, 0, 3);
+                int blockHeader = (word[0] & 0xFF) | (word[1] & 0xFF) << 8 | (word[2] & 0xFF) << 16;
+                last = (blockHeader & 1) != 0;
+                int type = (blockHeader >> 1) & 3;
+                int size = blockHeader >>> 3;
+                if (type == 3) {
+                    throw new IOException("Corrupted zstd block at " + blockPos);
+                }
+                blockPos += 3 + ((type == 1) ? 1 : size);
+            }
+            frames.add(pos, 0, uncompressed, -1, 0);
+            uncompressed += contentSize;
+            pos = blockPos + (checksum ? 4 : 0);
+        }
+        frames.end(uncompressed);
+        return frames;
+    }
+
+    /**
+     * Growing list of frames
+     */
+    private static class FrameList {
+        private long[] compressed = new long[1024];
+        private byte[] bits = new byte[1024];
+        private long[] uncompressed = new long[1024];
+        private long[] windowPositions = new long[1024];
+        private int[] windowLengths = new int[1024];
+        private int count;
+        private long uncompressedLength;
+
+        void add(long compressedOffset, int bitOffset, long uncompressedOffset, long windowPosition, int windowLength) {
+            if (count == compressed.length) {
+                compressed = Arrays.copyOf(compressed, count * 2);
+                bits = Arrays.copyOf(bits, count * 2);
+                uncompressed = Arrays.copyOf(uncompressed, count * 2);
+                windowPositions = Arrays.copyOf(windowPositions, count * 2);
+                windowLengths = Arrays.copyOf(windowLengths, count * 2);
+            }
+            compressed[count] = compressedOffset;
+            bits[count] = (byte) bitOffset;
+            uncompressed[count] = uncompressedOffset;
+            windowPositions[count] = windowPosition;
+            windowLengths[count] = windowLength;
+            count++;
+        }
+
+        void end(long length) {
+            uncompressedLength = length;
+        }
+
+        CompressedFrameIndex toIndex(Path path) {
+            if (count == 0) {
+                return new CompressedFrameIndex(new long[]{0}, new byte[1], new long[]{0}, new long[]{-1}, new int[1],
+                        0, path);
+            }
+            return new CompressedFrameIndex(Arrays.copyOf(compressed, count), Arrays.copyOf(bits, count),
+                    Arrays.copyOf(uncompressed, count), Arrays.copyOf(windowPositions, count),
+                    Arrays.copyOf(windowLengths, count), uncompressedLength, path);
+        }
+    }
+
+    /**
+     * Loads the cached index, returns null if it is missing, incomplete or stale
+     */
+    private static CompressedFrameIndex load(FileSystem fs, Path idxPath, FileStatus file, long spacing) {
+        try {
+            if (!fs.exists(idxPath)) {
+                return null;
+            }
+            long idxLength = fs.getFileStatus(idxPath).getLen();
+            try (FSDataInputStream in = fs.open(idxPath)) {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                        || in.readLong() != file.getLen() || in.readLong() != file.getModificationTime()
+                        || in.readLong() != spacing || idxLength < in.getPos() + INDEX_FOOTER_SIZE) {
+                    return null;
+                }
+                // an index left behind by an interrupted build has no footer
+                in.seek(idxLength - INDEX_FOOTER_SIZE);
+                long tablePosition = in.readLong();
+                if (in.readInt() != INDEX_MAGIC) {
+                    return null;
+                }
+                in.seek(tablePosition);
+                long uncompressedLength = in.readLong();
+                int n = in.readInt();
+                long[] compressedOffsets = new long[n];
+                byte[] bitOffsets = new byte[n];
+                long[] uncompressedOffsets = new long[n];
+                long[] windowPositions = new long[n];
+                int[] windowLengths = new int[n];
+                for (int i = 0; i < n; i++) {
+                    compressedOffsets[i] = in.readLong();
+                    bitOffsets[i] = in.readByte();
+                    uncompressedOffsets[i] = in.readLong();
+                    windowPositions[i] = in.readLong();
+                    windowLengths[i] = in.readInt();
+                }
+                return new CompressedFrameIndex(compressedOffsets, bitOffsets, uncompressedOffsets, windowPositions,
+                        windowLengths, uncompressedLength, idxPath);
+            }
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Unable to read frame index " + idxPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Appends the frame table and the footer to the index file, after the header and the windows
+     */
+    private void writeTable(FSDataOutputStream out) throws IOException {
+        long tablePosition = out.getPos();
+        out.writeLong(uncompressedLength);
+        out.writeInt(compressedOffsets.length);
+        for (int i = 0; i < compressedOffsets.length; i++) {
+            out.writeLong(compressedOffsets[i]);
+            out.writeByte(bitOffsets[i]);
+            out.writeLong(uncompressedOffsets[i]);
+            out.writeLong(windowPositions[i]);
+            out.writeInt(windowLengths[i]);
+        }
+        out.writeLong(tablePosition);
+        out.writeInt(INDEX_MAGIC);
+    }
+}
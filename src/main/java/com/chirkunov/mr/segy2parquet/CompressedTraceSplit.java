@@ -0,0 +1,118 @@
+/**
+ * Input split of a compressed SEGY file
+ * Start and length are uncompressed offsets of whole traces; the split also carries the compressed offset
+ * (and the uncompressed offset) of the frame to start decompressing from (see CompressedFrameIndex),
+ * with the bit offset and window of a gzip checkpoint, besides the trace layout of the file (see SEGYSplit).
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * SEGYSplit of uncompressed trace range with the seek point of its compressed frame
+ */
+public class CompressedTraceSplit extends SEGYSplit {
+
+	private long frameOffset;
+	private int frameBitOffset;
+	private byte[] window;
+	private long frameStart;
+
+	public CompressedTraceSplit() {
+	}
+
+	/**
+	 * Creates split
+	 * @param file compressed SEGY file
+	 * @param start uncompressed offset of the first trace
+	 * @param length uncompressed length of the traces
+	 * @param frameOffset compressed offset of the frame which holds the first trace
+	 * @param frameBitOffset bits of the first frame byte which belong to the previous deflate block (checkpoints)
+	 * @param window uncompressed bytes preceding the frame for checkpoints, null for frame starts
+	 * @param frameStart uncompressed offset of that frame
+	 * @param hosts hosts of the frame block
+	 * @param inMemoryHosts hosts with the frame block in memory
+	 * @param nSamples number of samples per trace (binary header)
+	 * @param numFormat number format code of the samples
+	 * @param byteOrder byte order of the file
+	 * @param fileHeader file header (3600 bytes of the decompressed file), or null if unknown
+	 */
+	public CompressedTraceSplit(Path file, long start, long length, long frameOffset, int frameBitOffset, byte[] window,
+								long frameStart, String[] hosts, String[] inMemoryHosts, int nSamples, short numFormat,
+								ByteOrder byteOrder, byte[] fileHeader) {
+		super(file, start, length, hosts, inMemoryHosts, nSamples, numFormat, byteOrder, fileHeader);
+		this.frameOffset = frameOffset;
+		this.frameBitOffset = frameBitOffset;
+		this.window = window;
+		this.frameStart = frameStart;
+	}
+
+	/**
+	 * Returns compressed offset of the frame to start decompressing from
+	 * @return
+	 */
+	public long getFrameOffset() {
+		return frameOffset;
+	}
+
+	/**
+	 * Returns bits of the first frame byte which belong to the previous deflate block
+	 * @return
+	 */
+	public int getFrameBitOffset() {
+		return frameBitOffset;
+	}
+
+	/**
+	 * Returns window of the gzip checkpoint, null if the split starts at a frame start
+	 * @return
+	 */
+	public byte[] getWindow() {
+		return window;
+	}
+
+	/**
+	 * Returns uncompressed offset of the frame start
+	 * @return
+	 */
+	public long getFrameStart() {
+		return frameStart;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeLong(frameOffset);
+		out.writeByte(frameBitOffset);
+		out.writeInt(window == null ? -1 : window.length);
+		if (window != null) {
+			out.write(window);
+		}
+		out.writeLong(frameStart);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		super.readFields(in);
+		frameOffset = in.readLong();
+		frameBitOffset = in.readByte();
+		int windowLength = in.readInt();
+		window = null;
+		if (windowLength >= 0) {
+			window = new byte[windowLength];
+			in.readFully(window);
+		}
+		frameStart = in.readLong();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ((window == null) ? " (frame at " + frameOffset + ")"
+				: " (checkpoint at " + frameOffset + ", bit " + frameBitOffset + ")");
+	}
+}
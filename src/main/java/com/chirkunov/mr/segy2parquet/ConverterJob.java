@@ -12,11 +12,17 @@ import java.io.IOException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.parquet.example.data.Group;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.parquet.hadoop.ParquetOutputFormat;
@@ -24,6 +30,9 @@ import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import org.apache.parquet.schema.MessageType;
 import org.apache.parquet.schema.MessageTypeParser;
 import org.apache.parquet.example.data.simple.*;
+import org.apache.parquet.io.api.Binary;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -40,6 +49,41 @@ public class ConverterJob extends Configured implements Tool {
     // Settings names of the block size
     private final String CONF_DFS_BLOCKSIZE = "dfs.blocksize";
     private final String CONF_PARQUET_BLOCK_SIZE = "parquet.block.size";
+    // Setting of the trace data samples encoding: double (lossless), int16 or int8 (lossy, quantized per trace)
+    public static final String SAMPLE_ENCODING_SETTING = "com.chirkunov.mr.segy2parquet.SAMPLE_ENCODING";
+    public static final String DEFAULT_SAMPLE_ENCODING = "double";
+    // Setting of the quantization error bound: RMS error relative to the trace RMS amplitude.
+    // Traces which do not fit into the bound are stored as doubles
+    public static final String QUANT_MAX_ERROR_SETTING = "com.chirkunov.mr.segy2parquet.QUANT_MAX_ERROR";
+    public static final double DEFAULT_QUANT_MAX_ERROR = 0.005;
+    // Setting of the gather key for the gather layout: ffid (field record number) or cdp
+    public static final String GATHER_KEY_SETTING = "com.chirkunov.mr.segy2parquet.GATHER_KEY";
+    public static final String DEFAULT_GATHER_KEY = "ffid";
+
+    // Setting of the brick size in samples along inline, crossline and sample axes
+    public static final String BRICK_SIZE_SETTING = "com.chirkunov.mr.segy2parquet.BRICK_SIZE";
+    public static final String DEFAULT_BRICK_SIZE = "64,64,64";
+    // Named output and location of the brick index
+    private static final String BRICK_INDEX_OUTPUT = "brickindex";
+    private static final String BRICK_INDEX_PATH = "_brickindex/part";
+    // Setting of the reduced-resolution overviews written in the same pass (trace layout only),
+    // comma-separated spatial:time decimation factors, e.g. "2:2,4:4" (see OverviewDecimator)
+    public static final String OVERVIEWS_SETTING = "com.chirkunov.mr.segy2parquet.OVERVIEWS";
+
+    private static final MessageType TRACE_SCHEMA = TraceGroupWriteSupport.getSchema();
+    private static final MessageType GATHER_SCHEMA = TraceGroupWriteSupport.getGatherSchema();
+    private static final MessageType BRICK_SCHEMA = TraceGroupWriteSupport.getBrickSchema();
+
+    // output folder of the last run
+    private Path outputPath;
+
+    /**
+     * Returns output folder of the last run: the requested folder name with a unique suffix
+     * @return
+     */
+    public Path getOutputPath() {
+        return outputPath;
+    }
 
     public int run(String[] args) throws Exception {
         Configuration conf = getConf();
@@ -57,55 +101,435 @@ public class ConverterJob extends Configured implements Tool {
         Path out = new Path(args[1]);
         Path outSub = new Path(UUID.randomUUID().toString());
         out = Path.mergePaths(out, outSub);
+        outputPath = out;
         job.setJarByClass(ConverterJob.class);
         FileInputFormat.addInputPath(job, in);
         FileOutputFormat.setOutputPath(job, out);
-        job.setMapperClass(ConverterJob.MapClass.class);
-        // Default Parquet mapper maps (k,v) to (Void, Group) pair
-        job.setMapOutputKeyClass(Void.class);
-        job.setMapOutputValueClass(Group.class);
+        String layout = conf.get(TraceGroupWriteSupport.OUTPUT_LAYOUT_SETTING, TraceGroupWriteSupport.LAYOUT_TRACE);
+        if (conf.get(OVERVIEWS_SETTING) != null && !TraceGroupWriteSupport.LAYOUT_TRACE.equals(layout)) {
+            throw new IllegalArgumentException("Not supported overviews for the layout: " + layout);
+        }
+        if (TraceGroupWriteSupport.LAYOUT_BRICK.equals(layout)) {
+            // trace segments are shuffled to bricks, the brick index goes to a hidden side output
+            job.setMapperClass(ConverterJob.BrickMapClass.class);
+            job.setReducerClass(ConverterJob.BrickReduceClass.class);
+            job.setMapOutputKeyClass(BrickKeyWritable.class);
+            job.setMapOutputValueClass(BrickSegmentWritable.class);
+            job.setOutputKeyClass(Void.class);
+            job.setOutputValueClass(Group.class);
+            MultipleOutputs.addNamedOutput(job, BRICK_INDEX_OUTPUT, TextOutputFormat.class, NullWritable.class, Text.class);
+        } else if (TraceGroupWriteSupport.LAYOUT_GATHER.equals(layout)) {
+            // traces are shuffled to gathers, sorted by source file and trace id inside a gather
+            job.setMapperClass(ConverterJob.GatherMapClass.class);
+            job.setReducerClass(ConverterJob.GatherReduceClass.class);
+            job.setMapOutputKeyClass(GatherKeyWritable.class);
+            job.setMapOutputValueClass(TraceWritable.class);
+            job.setPartitionerClass(GatherKeyWritable.GatherPartitioner.class);
+            job.setGroupingComparatorClass(GatherKeyWritable.GroupingComparator.class);
+            job.setOutputKeyClass(Void.class);
+            job.setOutputValueClass(Group.class);
+        } else {
+            job.setMapperClass(ConverterJob.MapClass.class);
+            // every overview level gets its own Parquet writer
+            for (OverviewDecimator decimator : OverviewDecimator.parse(conf.get(OVERVIEWS_SETTING))) {
+                MultipleOutputs.addNamedOutput(job, decimator.getName(), ParquetOutputFormat.class, Void.class, Group.class);
+            }
+            // Default Parquet mapper maps (k,v) to (Void, Group) pair
+            job.setMapOutputKeyClass(Void.class);
+            job.setMapOutputValueClass(Group.class);
 
-        job.setNumReduceTasks(0);
+            job.setNumReduceTasks(0);
+        }
         job.setInputFormatClass(SEGYInputFormat.class);
         job.setOutputFormatClass(ParquetOutputFormat.class);
 
-        // Enable SNAPPY compression to make result parquet files more compact
-        ParquetOutputFormat.setCompression(job, CompressionCodecName.SNAPPY);
+        if (conf.getBoolean(CodecTuner.TUNE_SETTING, false)) {
+            // codec, dictionary encoding and page size are chosen on a sample of the input traces
+            CodecTuner.tune(job);
+        }
+        // split planning stages the survey header table, which the footers of the reduce outputs are built from
+        job.getConfiguration().set(SurveyHeaderTable.TABLE_SETTING, new Path(out, SurveyHeaderTable.STAGING_PATH).toString());
+        // Enable SNAPPY compression to make result parquet files more compact, unless the codec is set (or tuned)
+        if (job.getConfiguration().get(ParquetOutputFormat.COMPRESSION) == null) {
+            ParquetOutputFormat.setCompression(job, CompressionCodecName.SNAPPY);
+        }
         ParquetOutputFormat.setCompressOutput(job, true);
         ParquetOutputFormat.setWriteSupportClass(job, TraceGroupWriteSupport.class);
+        if (TraceGroupWriteSupport.LAYOUT_BRICK.equals(layout)) {
+            // Parquet output keeps the codec above, the brick index stays plain text
+            FileOutputFormat.setCompressOutput(job, false);
+        }
         //GroupWriteSupport.setSchema(messageType, conf);
 
-        boolean success = job.waitForCompletion(true);
+        boolean success = false;
+        try {
+            success = job.waitForCompletion(true);
+        } finally {
+            // the table is kept only next to the output of a succeeded job
+            SurveyHeaderTable.publish(job.getConfiguration(), out, success);
+        }
         return (success ? 0 : 1);
     }
 
     public static class MapClass extends Mapper<TraceHeaderWritable, TraceWritable, Void, Group> {
 
+        private TraceQuantizer quantizer;
+        private List<OverviewDecimator> overviews;
+        private TraceWritable overviewTrace = new TraceWritable();
+        private MultipleOutputs<Void, Group> outputs;
+        // rows are written right away, so both are reused views of the current traces
+        private TraceGroup row = new TraceGroup();
+        private TraceGroup overviewRow = new TraceGroup();
+
+        @Override
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            // the Parquet writers of the task put the file header of its input file into their footers on close
+            SEGYInputFormat.setInputFile(conf, context.getInputSplit());
+            quantizer = TraceQuantizer.forEncoding(conf.get(SAMPLE_ENCODING_SETTING, DEFAULT_SAMPLE_ENCODING),
+                    conf.getDouble(QUANT_MAX_ERROR_SETTING, DEFAULT_QUANT_MAX_ERROR));
+            overviews = OverviewDecimator.parse(conf.get(OVERVIEWS_SETTING));
+            if (!overviews.isEmpty()) {
+                outputs = new MultipleOutputs<Void, Group>(context);
+            }
+        }
+
         @Override
         protected void map(TraceHeaderWritable key, TraceWritable tw, Context context) throws IOException, InterruptedException {
-            // Protobuf Parquet row description
-            // Mainly it corresponds to SEGY Trace format,
-            // however trace data samples are stored in the Double type
-            // (compromise between Int and Float types)
-
-            Group group = new SimpleGroup(TraceGroupWriteSupport.getSchema());
-            TraceHeaderWritable thw = key;
-            // protobuf map order: (1->0), (2->1), (3->2) ...
-            group.add(0, thw.getTraceID());
-            group.add(1, thw.getFieldRecordNumberID());
-            group.add(2, thw.getDistSRG());
-            group.add(3, thw.getSrcX());
-            group.add(4, thw.getSrcY());
-            group.add(5, (int) thw.getSI());
-            group.add(6, thw.getILineID());
-            group.add(7, thw.getXLineID());
-            // write an array of samples data
-            for(double item:tw.getTraceDataDouble()){
-                group.add(8, item);
+            context.write(null, row.set(key, tw, quantizer));
+            // overviews are decimated from the already decoded trace
+            for (OverviewDecimator decimator : overviews) {
+                if (decimator.accept(key)) {
+                    decimator.decimate(tw, overviewTrace);
+                    outputs.write(decimator.getName(), null, overviewRow.set(overviewTrace.getTraceHeader(), overviewTrace, quantizer),
+                            decimator.getBaseOutputPath());
+                }
+            }
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (outputs != null) {
+                outputs.close();
+            }
+        }
+    }
+
+    /**
+     * Mapper of the gather layout, keys every trace by its gather
+     */
+    public static class GatherMapClass extends Mapper<TraceHeaderWritable, TraceWritable, GatherKeyWritable, TraceWritable> {
+
+        private GatherKeyWritable gatherKey = new GatherKeyWritable();
+        private boolean byCdp;
+        // traces of a gather spanning several input files are ordered by file, then by trace id
+        private String file = "";
+
+        @Override
+        protected void setup(Context context) {
+            String gatherKeyName = context.getConfiguration().get(GATHER_KEY_SETTING, DEFAULT_GATHER_KEY);
+            if (!"ffid".equals(gatherKeyName) && !"cdp".equals(gatherKeyName)) {
+                throw new IllegalArgumentException("Not supported gather key: " + gatherKeyName);
+            }
+            byCdp = "cdp".equals(gatherKeyName);
+            if (context.getInputSplit() instanceof FileSplit) {
+                file = ((FileSplit) context.getInputSplit()).getPath().toString();
+            }
+        }
+
+        @Override
+        protected void map(TraceHeaderWritable key, TraceWritable tw, Context context) throws IOException, InterruptedException {
+            gatherKey.set(byCdp ? key.getCdpID() : key.getFieldRecordNumberID(), file, key.getTraceID());
+            context.write(gatherKey, tw);
+        }
+    }
+
+    /**
+     * Reducer of the gather layout, writes one row per gather with nested traces
+     */
+    public static class GatherReduceClass extends Reducer<GatherKeyWritable, TraceWritable, Void, Group> {
+
+        private TraceQuantizer quantizer;
+
+        @Override
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            quantizer = TraceQuantizer.forEncoding(conf.get(SAMPLE_ENCODING_SETTING, DEFAULT_SAMPLE_ENCODING),
+                    conf.getDouble(QUANT_MAX_ERROR_SETTING, DEFAULT_QUANT_MAX_ERROR));
+        }
+
+        @Override
+        protected void reduce(GatherKeyWritable key, Iterable<TraceWritable> traces, Context context) throws IOException, InterruptedException {
+            Group gather = new SimpleGroup(GATHER_SCHEMA);
+            gather.add(TraceGroupWriteSupport.GATHER_ID, key.getGatherID());
+            int traceCount = 0;
+            // values are reused by the framework, so every trace is copied into the row right away;
+            // the key follows the values, so it holds the source file of the current trace
+            for (TraceWritable tw : traces) {
+                if (traceCount == 0) {
+                    // the hoisted header columns of the gather row take the values of its first trace
+                    gather.add(TraceGroupWriteSupport.GATHER_SOURCE_FILE, key.getFile());
+                    for (int field = 0; field < TRACE_SCHEMA.getFieldCount(); field++) {
+                        if (TraceGroupWriteSupport.isGatherField(field)) {
+                            gather.add(TRACE_SCHEMA.getFieldName(field), getHeaderField(tw.getTraceHeader(), field));
+                        }
+                    }
+                }
+                Group trace = gather.addGroup(TraceGroupWriteSupport.GATHER_TRACES);
+                fillGroup(trace, tw.getTraceHeader(), tw, quantizer, gather);
+                if (!key.getFile().equals(gather.getString(TraceGroupWriteSupport.GATHER_SOURCE_FILE, 0))) {
+                    trace.add("sourceFile", key.getFile());
+                }
+                traceCount++;
+            }
+            gather.add(TraceGroupWriteSupport.GATHER_TRACE_COUNT, traceCount);
+            context.write(null, gather);
+        }
+    }
+
+    /**
+     * Parses brick size setting
+     * @param conf job configuration
+     * @return brick size along inline, crossline and sample axes
+     * @throws IllegalArgumentException
+     */
+    static int[] getBrickSize(Configuration conf) throws IllegalArgumentException {
+        String[] items = conf.get(BRICK_SIZE_SETTING, DEFAULT_BRICK_SIZE).split(",");
+        if (items.length != 3) {
+            throw new IllegalArgumentException("Brick size should have 3 dimensions: " + conf.get(BRICK_SIZE_SETTING));
+        }
+        int[] size = new int[3];
+        for (int i = 0; i < 3; i++) {
+            size[i] = Integer.parseInt(items[i].trim());
+            if (size[i] <= 0) {
+                throw new IllegalArgumentException("Brick size should be positive: " + conf.get(BRICK_SIZE_SETTING));
             }
+        }
+        return size;
+    }
+
+    /**
+     * Mapper of the brick layout, cuts every trace into segments of the bricks it crosses
+     */
+    public static class BrickMapClass extends Mapper<TraceHeaderWritable, TraceWritable, BrickKeyWritable, BrickSegmentWritable> {
+
+        private BrickKeyWritable brickKey = new BrickKeyWritable();
+        private BrickSegmentWritable segment = new BrickSegmentWritable();
+        private int[] brickSize;
+
+        @Override
+        protected void setup(Context context) {
+            brickSize = getBrickSize(context.getConfiguration());
+        }
+
+        @Override
+        protected void map(TraceHeaderWritable key, TraceWritable tw, Context context) throws IOException, InterruptedException {
+            int brickIline = Math.floorDiv(key.getILineID(), brickSize[0]);
+            int brickXline = Math.floorDiv(key.getXLineID(), brickSize[1]);
+            double[] samples = tw.getSamples();
+            int length = tw.getTraceLength();
+            for (int from = 0, k = 0; from < length; from += brickSize[2], k++) {
+                brickKey.set(brickIline, brickXline, k);
+                segment.set(key.getILineID(), key.getXLineID(), samples, from, Math.min(length, from + brickSize[2]));
+                context.write(brickKey, segment);
+            }
+        }
+    }
+
+    /**
+     * Reducer of the brick layout, assembles and compresses a brick, and records it in the brick index
+     */
+    public static class BrickReduceClass extends Reducer<BrickKeyWritable, BrickSegmentWritable, Void, Group> {
+
+        private int[] brickSize;
+        private float[] brick;
+        // (inline, crossline) positions of the brick which already hold a trace
+        private boolean[] filled;
+        private BrickCodec codec = new BrickCodec();
+        private MultipleOutputs<Void, Group> outputs;
+        private Text indexLine = new Text();
+
+        @Override
+        protected void setup(Context context) {
+            brickSize = getBrickSize(context.getConfiguration());
+            brick = new float[brickSize[0] * brickSize[1] * brickSize[2]];
+            filled = new boolean[brickSize[0] * brickSize[1]];
+            outputs = new MultipleOutputs<Void, Group>(context);
+        }
+
+        @Override
+        protected void reduce(BrickKeyWritable key, Iterable<BrickSegmentWritable> segments, Context context) throws IOException, InterruptedException {
+            Arrays.fill(brick, 0f);
+            Arrays.fill(filled, false);
+            int ilineOrigin = key.getBrickIline() * brickSize[0];
+            int xlineOrigin = key.getBrickXline() * brickSize[1];
+            int sampleOrigin = key.getBrickSample() * brickSize[2];
+            int ilineMin = Integer.MAX_VALUE, ilineMax = Integer.MIN_VALUE;
+            int xlineMin = Integer.MAX_VALUE, xlineMax = Integer.MIN_VALUE;
+            int length = 0;
+            int traceCount = 0;
+            for (BrickSegmentWritable segment : segments) {
+                int il = segment.getILineID() - ilineOrigin;
+                int xl = segment.getXLineID() - xlineOrigin;
+                // a post-stack cube has one trace per position; keeping either of two traces would mix them
+                // along the sample axis, as the bricks below the shorter trace only see the longer one
+                if (filled[il * brickSize[1] + xl]) {
+                    throw new IOException("Duplicate trace at inline " + segment.getILineID()
+                            + ", crossline " + segment.getXLineID() + ": brick layout needs one trace per position");
+                }
+                filled[il * brickSize[1] + xl] = true;
+                System.arraycopy(segment.getSamples(), 0, brick, (il * brickSize[1] + xl) * brickSize[2], segment.getLength());
+                ilineMin = Math.min(ilineMin, segment.getILineID());
+                ilineMax = Math.max(ilineMax, segment.getILineID());
+                xlineMin = Math.min(xlineMin, segment.getXLineID());
+                xlineMax = Math.max(xlineMax, segment.getXLineID());
+                length = Math.max(length, segment.getLength());
+                traceCount++;
+            }
+            byte[] payload = codec.encode(brick, brick.length);
+
+            Group group = new SimpleGroup(BRICK_SCHEMA);
+            group.add(0, key.getBrickIline());
+            group.add(1, key.getBrickXline());
+            group.add(2, key.getBrickSample());
+            group.add(3, ilineMin);
+            group.add(4, ilineMax);
+            group.add(5, xlineMin);
+            group.add(6, xlineMax);
+            group.add(7, sampleOrigin);
+            group.add(8, sampleOrigin + length - 1);
+            group.add(9, brickSize[0]);
+            group.add(10, brickSize[1]);
+            group.add(11, brickSize[2]);
+            group.add(12, traceCount);
+            group.add(13, Binary.fromConstantByteArray(payload));
             context.write(null, group);
 
+            // brick index: grid position, bounding box, number of traces, compressed size
+            indexLine.set(String.format("%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d",
+                    key.getBrickIline(), key.getBrickXline(), key.getBrickSample(),
+                    ilineMin, ilineMax, xlineMin, xlineMax, sampleOrigin, sampleOrigin + length - 1,
+                    traceCount, payload.length));
+            outputs.write(BRICK_INDEX_OUTPUT, NullWritable.get(), indexLine, BRICK_INDEX_PATH);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            outputs.close();
+            codec.close();
+        }
+    }
+
+    /**
+     * Converts trace to the Parquet row
+     * @param thw trace header
+     * @param tw trace
+     * @param quantizer quantizer of trace data samples, null to store samples as doubles
+     * @return
+     */
+    public static Group toGroup(TraceHeaderWritable thw, TraceWritable tw, TraceQuantizer quantizer) {
+        Group group = new SimpleGroup(TRACE_SCHEMA);
+        fillGroup(group, thw, tw, quantizer);
+        return group;
+    }
+
+    /**
+     * Fills trace fields of the Parquet row
+     * @param group row with the trace schema fields
+     * @param thw trace header
+     * @param tw trace
+     * @param quantizer quantizer of trace data samples, null to store samples as doubles
+     */
+    public static void fillGroup(Group group, TraceHeaderWritable thw, TraceWritable tw, TraceQuantizer quantizer) {
+        fillGroup(group, thw, tw, quantizer, null);
+    }
+
+    /**
+     * Fills trace fields of the Parquet row, or of the nested trace struct of the gather row
+     * @param group row with the trace schema fields
+     * @param thw trace header
+     * @param tw trace
+     * @param quantizer quantizer of trace data samples, null to store samples as doubles
+     * @param gather gather row with the hoisted header columns set, null for the trace layout
+     */
+    static void fillGroup(Group group, TraceHeaderWritable thw, TraceWritable tw, TraceQuantizer quantizer, Group gather) {
+        // Protobuf Parquet row description
+        // Mainly it corresponds to SEGY Trace format,
+        // however trace data samples are stored in the Double type
+        // (compromise between Int and Float types)
+
+        // protobuf map order: (1->0), (2->1), (3->2) ...
+        for (int field = TraceGroupWriteSupport.FIELD_TRACE_ID; field <= TraceGroupWriteSupport.FIELD_XLINE_ID; field++) {
+            addHeaderField(group, field, getHeaderField(thw, field), gather);
+        }
+        double[] samples = tw.getSamples();
+        int length = tw.getTraceLength();
+        if (quantizer != null && quantizer.quantize(samples, length, tw.getTraceMin(), tw.getTraceMax(), tw.getNanCount())) {
+            // lossy samples with per-trace scale/offset, traceData stays empty
+            group.add(TraceGroupWriteSupport.FIELD_QUANT_BITS, quantizer.getBits());
+            group.add(TraceGroupWriteSupport.FIELD_QUANT_SCALE, quantizer.getScale());
+            group.add(TraceGroupWriteSupport.FIELD_QUANT_OFFSET, quantizer.getOffset());
+            group.add(TraceGroupWriteSupport.FIELD_TRACE_DATA_Q, Binary.fromConstantByteArray(quantizer.getBytes()));
+        } else {
+            // write an array of samples data
+            for(int i = 0; i < length; i++){
+                group.add(TraceGroupWriteSupport.FIELD_TRACE_DATA, samples[i]);
+            }
+        }
+        // per-trace statistics for QC and row-group pruning
+        group.add(TraceGroupWriteSupport.FIELD_TRACE_MIN, tw.getTraceMin());
+        group.add(TraceGroupWriteSupport.FIELD_TRACE_MAX, tw.getTraceMax());
+        group.add(TraceGroupWriteSupport.FIELD_TRACE_MEAN, tw.getTraceMean());
+        group.add(TraceGroupWriteSupport.FIELD_TRACE_RMS, tw.getTraceRms());
+        group.add(TraceGroupWriteSupport.FIELD_NAN_COUNT, tw.getNanCount());
+        group.add(TraceGroupWriteSupport.FIELD_DEAD, tw.isDead());
+        addHeaderField(group, TraceGroupWriteSupport.FIELD_CDP_ID, thw.getCdpID(), gather);
+        // raw header for the export of the trace layout; gather rows keep the hoisted columns only
+        if (gather == null && thw.hasRawHeader()) {
+            group.add(TraceGroupWriteSupport.FIELD_TRACE_HEADER, Binary.fromConstantByteArray(thw.getRawHeader().clone()));
+        }
+    }
+
+    /**
+     * Returns value of the int32 trace header column
+     * @param thw trace header
+     * @param field field index of the trace schema
+     * @return
+     */
+    static int getHeaderField(TraceHeaderWritable thw, int field) {
+        switch (field) {
+            case TraceGroupWriteSupport.FIELD_TRACE_ID:
+                return thw.getTraceID();
+            case TraceGroupWriteSupport.FIELD_FIELD_RECORD_NUMBER_ID:
+                return thw.getFieldRecordNumberID();
+            case TraceGroupWriteSupport.FIELD_DIST_SRG:
+                return thw.getDistSRG();
+            case TraceGroupWriteSupport.FIELD_SRC_X:
+                return thw.getSrcX();
+            case TraceGroupWriteSupport.FIELD_SRC_Y:
+                return thw.getSrcY();
+            case TraceGroupWriteSupport.FIELD_SI:
+                return thw.getSampleInterval();
+            case TraceGroupWriteSupport.FIELD_ILINE_ID:
+                return thw.getILineID();
+            case TraceGroupWriteSupport.FIELD_XLINE_ID:
+                return thw.getXLineID();
+            case TraceGroupWriteSupport.FIELD_CDP_ID:
+                return thw.getCdpID();
+            default:
+                throw new IllegalArgumentException("Not supported trace header field: " + field);
+        }
+    }
+
+    /**
+     * Adds header value; a nested trace of a gather leaves out the hoisted values equal to the gather's ones
+     */
+    private static void addHeaderField(Group group, int field, int value, Group gather) {
+        if (gather != null && TraceGroupWriteSupport.isGatherField(field)
+                && gather.getInteger(group.getType().getFieldName(field), 0) == value) {
+            return;
         }
+        group.add(field, value);
     }
 
     /**
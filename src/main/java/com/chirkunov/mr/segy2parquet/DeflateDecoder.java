@@ -0,0 +1,447 @@
+/**
+ * Raw deflate (RFC 1951) decoder which stops and resumes at block boundaries
+ * java.util.zip.Inflater only starts at the byte-aligned start of a stream, while the blocks inside a deflate
+ * stream start at arbitrary bits. This decoder returns from read at every block end, reports the bit position,
+ * the uncompressed position and the 32 KB window of the preceding output there, and resumes from such a
+ * checkpoint (bit offset into the first byte and the window), as zlib's zran example does.
+ * Single-member gzip files are split at these checkpoints (see CompressedFrameIndex).
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Resumable raw deflate decoder
+ */
+public class DeflateDecoder extends InputStream {
+
+    // deflate distances reach 32 KB back
+    public static final int WINDOW_SIZE = 32768;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+    private static final int MAX_BITS = 15;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // order of the code length code lengths in the dynamic block header
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+    private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59,
+            67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3,
+            4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385,
+            513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8,
+            9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+
+    // decoding tables of the fixed Huffman codes: (symbol << 4) | code length, indexed by the next bits
+    private static final int[] FIXED_LITERAL_TABLE = new int[1 << 9];
+    private static final int[] FIXED_DISTANCE_TABLE = new int[1 << 5];
+
+    static {
+        byte[] lengths = new byte[288];
+        Arrays.fill(lengths, 0, 144, (byte) 8);
+        Arrays.fill(lengths, 144, 256, (byte) 9);
+        Arrays.fill(lengths, 256, 280, (byte) 7);
+        Arrays.fill(lengths, 280, 288, (byte) 8);
+        buildTable(lengths, 0, lengths.length, FIXED_LITERAL_TABLE);
+        Arrays.fill(lengths, 0, 32, (byte) 5);
+        buildTable(lengths, 0, 32, FIXED_DISTANCE_TABLE);
+    }
+
+    private enum State { BLOCK_HEADER, STORED, HUFFMAN, DONE }
+
+    private final InputStream in;
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private int inputPos;
+    private int inputLimit;
+    private long bitBuffer;
+    private int bitCount;
+    // bits consumed since the start byte, including the skipped bits of the start byte
+    private long bitsRead;
+
+    // ring of the last WINDOW_SIZE output bytes
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long bytesWritten;
+    // output bytes available for back references, the preset window included
+    private long history;
+
+    private State state = State.BLOCK_HEADER;
+    private boolean lastBlock;
+    private int storedRemaining;
+    private int copyLength;
+    private int copyDistance;
+    private int[] literalTable;
+    private int literalBits;
+    private int[] distanceTable;
+    private int distanceBits;
+    private final int[] dynamicLiteralTable = new int[1 << MAX_BITS];
+    private final int[] dynamicDistanceTable = new int[1 << MAX_BITS];
+    private final byte[] codeLengths = new byte[288 + 32];
+    private final byte[] single = new byte[1];
+
+    /**
+     * Creates decoder of a deflate stream which starts at the current position of the input
+     * @param in compressed input
+     */
+    public DeflateDecoder(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Creates decoder which resumes at a block boundary
+     * @param in compressed input, positioned at the byte which holds the first bit of the block
+     * @param bitOffset number of bits of that byte which belong to the previous block (0-7)
+     * @param window up to WINDOW_SIZE output bytes preceding the block, null at the stream start
+     * @throws IOException
+     */
+    public DeflateDecoder(InputStream in, int bitOffset, byte[] window) throws IOException {
+        this.in = in;
+        if (window != null) {
+            // the ring is indexed by the output position, the preset bytes precede position 0
+            int n = Math.min(window.length, WINDOW_SIZE);
+            System.arraycopy(window, window.length - n, this.window, WINDOW_SIZE - n, n);
+            this.history = n;
+        }
+        if (bitOffset > 0) {
+            int b = nextByte();
+            if (b < 0) {
+                throw new EOFException("Truncated deflate data");
+            }
+            bitBuffer = b >>> bitOffset;
+            bitCount = 8 - bitOffset;
+            bitsRead = bitOffset;
+        }
+    }
+
+    /**
+     * True if the decoder stands at the start of a block which is not the first one of the stream,
+     * i.e. at a point where decoding can be resumed from getBitsRead and getWindow
+     * @return
+     */
+    public boolean isBlockBoundary() {
+        return state == State.BLOCK_HEADER && !lastBlock && bitsRead > 0;
+    }
+
+    /**
+     * True if the final block of the stream has been decoded
+     * @return
+     */
+    public boolean isFinished() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Returns number of compressed bits consumed from the start byte (including its skipped bits)
+     * @return
+     */
+    public long getBitsRead() {
+        return bitsRead;
+    }
+
+    /**
+     * Returns number of decoded bytes
+     * @return
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the last (up to WINDOW_SIZE) decoded bytes, the preset window included
+     * @return
+     */
+    public byte[] getWindow() {
+        int n = (int) Math.min(history, WINDOW_SIZE);
+        byte[] copy = new byte[n];
+        int from = (int) ((bytesWritten - n) & WINDOW_MASK);
+        int head = Math.min(n, WINDOW_SIZE - from);
+        System.arraycopy(window, from, copy, 0, head);
+        System.arraycopy(window, 0, copy, head, n - head);
+        return copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return (n < 0) ? -1 : single[0] & 0xFF;
+    }
+
+    /**
+     * Decodes up to len bytes, returns early at the end of every block
+     * @return number of bytes, -1 after the final block
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            switch (state) {
+                case BLOCK_HEADER:
+                    if (n > 0) {
+                        return n;
+                    }
+                    readBlockHeader();
+                    break;
+                case STORED:
+                    while (n < len && storedRemaining > 0) {
+                        put(b, off + n++, (byte) bits(8));
+                        storedRemaining--;
+                    }
+                    if (storedRemaining == 0) {
+                        endBlock();
+                    }
+                    break;
+                case HUFFMAN:
+                    n = inflate(b, off, n, len);
+                    break;
+                default:
+                    return (n == 0) ? -1 : n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Decodes Huffman coded symbols into b[off + n, off + len)
+     * @return new n
+     */
+    private int inflate(byte[] b, int off, int n, int len) throws IOException {
+        while (n < len) {
+            if (copyLength > 0) {
+                int count = Math.min(copyLength, len - n);
+                for (int i = 0; i < count; i++) {
+                    put(b, off + n++, window[(int) ((bytesWritten - copyDistance) & WINDOW_MASK)]);
+                }
+                copyLength -= count;
+                continue;
+            }
+            int symbol = decode(literalTable, literalBits);
+            if (symbol < 256) {
+                put(b, off + n++, (byte) symbol);
+            } else if (symbol == 256) {
+                endBlock();
+                return n;
+            } else {
+                symbol -= 257;
+                if (symbol >= LENGTH_BASE.length) {
+                    throw new IOException("Corrupted deflate data: invalid length symbol");
+                }
+                copyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                int distanceSymbol = decode(distanceTable, distanceBits);
+                if (distanceSymbol >= DISTANCE_BASE.length) {
+                    throw new IOException("Corrupted deflate data: invalid distance symbol");
+                }
+                copyDistance = DISTANCE_BASE[distanceSymbol] + bits(DISTANCE_EXTRA[distanceSymbol]);
+                if (copyDistance > history) {
+                    throw new IOException("Corrupted deflate data: distance beyond the window");
+                }
+            }
+        }
+        return n;
+    }
+
+    private void put(byte[] b, int pos, byte value) {
+        b[pos] = value;
+        window[(int) (bytesWritten & WINDOW_MASK)] = value;
+        bytesWritten++;
+        history++;
+    }
+
+    private void endBlock() {
+        state = lastBlock ? State.DONE : State.BLOCK_HEADER;
+    }
+
+    private void readBlockHeader() throws IOException {
+        lastBlock = bits(1) == 1;
+        int type = bits(2);
+        switch (type) {
+            case 0:
+                // stored block: byte aligned LEN and NLEN, then LEN raw bytes
+                bits(bitCount & 7);
+                int length = bits(16);
+                if ((length ^ bits(16)) != 0xFFFF) {
+                    throw new IOException("Corrupted deflate data: stored block length");
+                }
+                storedRemaining = length;
+                state = State.STORED;
+                if (storedRemaining == 0) {
+                    endBlock();
+                }
+                break;
+            case 1:
+                literalTable = FIXED_LITERAL_TABLE;
+                literalBits = 9;
+                distanceTable = FIXED_DISTANCE_TABLE;
+                distanceBits = 5;
+                state = State.HUFFMAN;
+                break;
+            case 2:
+                readDynamicTables();
+                state = State.HUFFMAN;
+                break;
+            default:
+                throw new IOException("Corrupted deflate data: invalid block type");
+        }
+    }
+
+    private void readDynamicTables() throws IOException {
+        int nLiteral = bits(5) + 257;
+        int nDistance = bits(5) + 1;
+        int nCodeLength = bits(4) + 4;
+        byte[] lengthLengths = new byte[19];
+        for (int i = 0; i < nCodeLength; i++) {
+            lengthLengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+        }
+        int[] lengthTable = new int[1 << 7];
+        int lengthBits;
+        try {
+            lengthBits = buildTable(lengthLengths, 0, lengthLengths.length, lengthTable);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted deflate data: " + e.getMessage(), e);
+        }
+        int i = 0;
+        while (i < nLiteral + nDistance) {
+            int symbol = decode(lengthTable, lengthBits);
+            if (symbol < 16) {
+                codeLengths[i++] = (byte) symbol;
+                continue;
+            }
+            byte value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new IOException("Corrupted deflate data: repeat without a previous length");
+                }
+                value = codeLengths[i - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            if (i + repeat > nLiteral + nDistance) {
+                throw new IOException("Corrupted deflate data: too many code lengths");
+            }
+            Arrays.fill(codeLengths, i, i + repeat, value);
+            i += repeat;
+        }
+        if (codeLengths[256] == 0) {
+            throw new IOException("Corrupted deflate data: missing end of block code");
+        }
+        try {
+            literalTable = dynamicLiteralTable;
+            literalBits = buildTable(codeLengths, 0, nLiteral, literalTable);
+            distanceTable = dynamicDistanceTable;
+            distanceBits = buildTable(codeLengths, nLiteral, nDistance, distanceTable);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted deflate data: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Fills the decoding table of the canonical Huffman code with the given code lengths
+     * @return number of bits indexing the table (the longest code length)
+     */
+    private static int buildTable(byte[] lengths, int from, int count, int[] table) throws IllegalArgumentException {
+        int[] lengthCount = new int[MAX_BITS + 1];
+        int maxLength = 1;
+        for (int i = 0; i < count; i++) {
+            lengthCount[lengths[from + i]]++;
+            maxLength = Math.max(maxLength, lengths[from + i]);
+        }
+        int[] nextCode = new int[MAX_BITS + 1];
+        int code = 0;
+        lengthCount[0] = 0;
+        for (int bits = 1; bits <= MAX_BITS; bits++) {
+            code = (code + lengthCount[bits - 1]) << 1;
+            nextCode[bits] = code;
+        }
+        int size = 1 << maxLength;
+        // codes are stored from their most significant bit, the bit buffer holds them reversed
+        Arrays.fill(table, 0, size, 0);
+        for (int symbol = 0; symbol < count; symbol++) {
+            int length = lengths[from + symbol];
+            if (length == 0) {
+                continue;
+            }
+            int c = nextCode[length]++;
+            if (c >= (1 << length)) {
+                throw new IllegalArgumentException("Not supported over-subscribed Huffman code");
+            }
+            int entry = (symbol << 4) | length;
+            for (int i = Integer.reverse(c) >>> (32 - length); i < size; i += 1 << length) {
+                table[i] = entry;
+            }
+        }
+        return maxLength;
+    }
+
+    /**
+     * Decodes one symbol with the table
+     */
+    private int decode(int[] table, int tableBits) throws IOException {
+        if (bitCount < tableBits) {
+            refill();
+        }
+        int entry = table[(int) bitBuffer & ((1 << tableBits) - 1)];
+        int length = entry & 15;
+        if (length == 0) {
+            throw new IOException("Corrupted deflate data: invalid Huffman code");
+        }
+        if (length > bitCount) {
+            throw new EOFException("Truncated deflate data");
+        }
+        drop(length);
+        return entry >>> 4;
+    }
+
+    /**
+     * Returns the next n bits (n <= 16)
+     */
+    private int bits(int n) throws IOException {
+        if (bitCount < n) {
+            refill();
+            if (bitCount < n) {
+                throw new EOFException("Truncated deflate data");
+            }
+        }
+        int value = (int) bitBuffer & ((1 << n) - 1);
+        drop(n);
+        return value;
+    }
+
+    private void drop(int n) {
+        bitBuffer >>>= n;
+        bitCount -= n;
+        bitsRead += n;
+    }
+
+    private void refill() throws IOException {
+        while (bitCount <= 56) {
+            int b = nextByte();
+            if (b < 0) {
+                return;
+            }
+            bitBuffer |= (long) b << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    private int nextByte() throws IOException {
+        if (inputPos == inputLimit) {
+            inputLimit = in.read(input, 0, input.length);
+            inputPos = 0;
+            if (inputLimit <= 0) {
+                inputLimit = 0;
+                return -1;
+            }
+        }
+        return input[inputPos++] & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * Map-Reduce Job implementation to export Parquet traces (trace layout) back to SEGY
+ * Map tasks read traces with ParquetTraceInputFormat (optionally filtered by header columns)
+ * and write headerless SEGY part files, each with a manifest of its input split (source file and start).
+ * Task numbers follow the split sizes rather than the input order, so a final step orders the parts
+ * by their manifests, writes a regenerated 3600-byte file header (binary header fields from the source
+ * SEGY header kept in the Parquet footer) and splices the parts behind it with a file system concat,
+ * falling back to copying where concat is not supported (e.g. the local file system).
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MapReduce Job to export Parquet traces to SEGY format
+ */
+public class ExportJob extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExportJob.class);
+
+    // trace header offsets of the sample count and interval
+    private static final int TRACE_NS_OFFSET = 114;
+    private static final int TRACE_SI_OFFSET = 116;
+    // suffix of the temporary folder with part files
+    private static final String PARTS_SUFFIX = ".parts";
+    // base name of the task part files (FileOutputFormat default) and extension of the split manifest
+    // written next to every part file
+    private static final String PART_NAME = "part";
+    private static final String MANIFEST_EXTENSION = ".split";
+    // footer metadata prefix of the binary header of the first source SEGY file (see TraceGroupWriteSupport)
+    private static final String FOOTER_BINARY_HEADER = TraceGroupWriteSupport.METADATA_PREFIX + "0.binaryHeader.";
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    public ExportJob(){
+    }
+
+    public int run(String[] args) throws Exception {
+        Configuration conf = getConf();
+        int nFmt = conf.getInt(SEGYInputFormat.TRACE_NUM_FMT_SETTING, SEGYOutputFormat.DEFAULT_NUM_FMT);
+        // fail fast on formats which cannot be written
+        NumFormatUtil.writeTo(nFmt, 0, ByteBuffer.allocate(Integer.BYTES));
+        String filter = conf.get(ParquetTraceInputFormat.HEADER_FILTER_SETTING);
+        if (filter != null) {
+            ParquetTraceInputFormat.setHeaderFilter(conf, filter);
+        }
+
+        Job job = Job.getInstance(conf, "Exporting Parquet to SEGY");
+        Path in = new Path(args[0]);
+        Path out = new Path(args[1]);
+        Path parts = out.suffix(PARTS_SUFFIX);
+        job.setJarByClass(ExportJob.class);
+        FileInputFormat.addInputPath(job, in);
+        FileOutputFormat.setOutputPath(job, parts);
+        // identity mapper: traces go from the Parquet reader straight to the SEGY writer
+        job.setMapperClass(ExportMapClass.class);
+        job.setNumReduceTasks(0);
+        job.setInputFormatClass(ParquetTraceInputFormat.class);
+        job.setOutputFormatClass(SEGYOutputFormat.class);
+        job.setOutputKeyClass(TraceHeaderWritable.class);
+        job.setOutputValueClass(TraceWritable.class);
+        // statistics are not needed to rebuild SEGY
+        ParquetTraceInputFormat.setColumns(job, "traceID", "fieldRecordNumberID", "cdpID", "distSRG",
+                "srcX", "srcY", "sI", "ilineID", "xlineID", "traceData", "traceHeader");
+
+        if (!job.waitForCompletion(true)) {
+            return 1;
+        }
+        long nTraces = job.getCounters().findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue();
+        splice(job.getConfiguration(), parts, out, nFmt, nTraces);
+        return 0;
+    }
+
+    /**
+     * Identity mapper, which writes the manifest of its input split next to its part file
+     */
+    public static class ExportMapClass extends Mapper<TraceHeaderWritable, TraceWritable, TraceHeaderWritable, TraceWritable> {
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            FileSplit split = (FileSplit) context.getInputSplit();
+            // committed together with the part file of the task attempt
+            Path manifest = new Path(FileOutputFormat.getWorkOutputPath(context),
+                    FileOutputFormat.getUniqueFile(context, PART_NAME, MANIFEST_EXTENSION));
+            try (FSDataOutputStream stream = manifest.getFileSystem(context.getConfiguration()).create(manifest, false)) {
+                stream.writeUTF(split.getPath().toString());
+                stream.writeLong(split.getStart());
+            }
+        }
+    }
+
+    /**
+     * Part file with its input split, ordered by the source file and the split start
+     */
+    private static class Part implements Comparable<Part> {
+        private final Path path;
+        private final long length;
+        private final String source;
+        private final long start;
+
+        Part(Path path, long length, String source, long start) {
+            this.path = path;
+            this.length = length;
+            this.source = source;
+            this.start = start;
+        }
+
+        @Override
+        public int compareTo(Part o) {
+            int res = source.compareTo(o.source);
+            return (res != 0) ? res : Long.compare(start, o.start);
+        }
+    }
+
+    /**
+     * Writes SEGY file header and splices task part files behind it, in the order of their input splits
+     * @param conf job configuration
+     * @param parts folder with the part files
+     * @param out SEGY file
+     * @param nFmt number format code of the samples
+     * @param nTraces number of exported traces
+     * @throws IOException
+     */
+    private static void splice(Configuration conf, Path parts, Path out, int nFmt, long nTraces) throws IOException {
+        FileSystem fs = parts.getFileSystem(conf);
+        List<Part> sorted = new ArrayList<Part>();
+        for (FileStatus status : fs.listStatus(parts, path -> path.getName().endsWith(SEGYOutputFormat.PART_EXTENSION))) {
+            String name = status.getPath().getName();
+            Path manifest = new Path(parts, name.substring(0, name.length() - SEGYOutputFormat.PART_EXTENSION.length())
+                    + MANIFEST_EXTENSION);
+            try (FSDataInputStream stream = fs.open(manifest)) {
+                sorted.add(new Part(status.getPath(), status.getLen(), stream.readUTF(), stream.readLong()));
+            }
+        }
+        Collections.sort(sorted);
+        List<Path> partFiles = new ArrayList<Path>();
+        for (Part part : sorted) {
+            if (part.length > 0) {
+                partFiles.add(part.path);
+            }
+        }
+
+        // sample count and interval of the first exported trace, used if the source header is not in the footer
+        byte[] firstTraceHeader = new byte[SEGYInputFormat.TRACE_HEADER_SIZE];
+        if (!partFiles.isEmpty()) {
+            try (FSDataInputStream stream = fs.open(partFiles.get(0))) {
+                stream.readFully(firstTraceHeader);
+            }
+        }
+        Map<String, Number> sourceHeader = sorted.isEmpty() ? Collections.<String, Number>emptyMap()
+                : readSourceHeader(conf, new Path(sorted.get(0).source));
+        byte[] header = buildFileHeader(sourceHeader, ByteBuffer.wrap(firstTraceHeader), nFmt, nTraces);
+
+        Path headerFile = new Path(parts, "header");
+        try (FSDataOutputStream stream = fs.create(headerFile, true)) {
+            stream.write(header);
+        }
+        boolean concatenated = false;
+        if (!partFiles.isEmpty()) {
+            try {
+                fs.concat(headerFile, partFiles.toArray(new Path[0]));
+                concatenated = true;
+            } catch (UnsupportedOperationException | IOException e) {
+                LOG.info("Concat is not available ({}), copying part files", e.getMessage());
+            }
+        } else {
+            concatenated = true;
+        }
+        if (concatenated) {
+            fs.delete(out, false);
+            if (!fs.rename(headerFile, out)) {
+                throw new IOException("Unable to move " + headerFile + " to " + out);
+            }
+        } else {
+            try (OutputStream stream = fs.create(out, true)) {
+                stream.write(header);
+                for (Path part : partFiles) {
+                    try (InputStream partStream = fs.open(part)) {
+                        IOUtils.copyBytes(partStream, stream, COPY_BUFFER_SIZE, false);
+                    }
+                }
+            }
+        }
+        fs.delete(parts, true);
+    }
+
+    /**
+     * Reads binary header fields of the source SEGY file from the footer metadata of a Parquet file
+     * @param conf job configuration
+     * @param file Parquet file written by ConverterJob
+     * @return field values by field names (see SEGYFileHeader.binaryHeader), empty if the footer has no source header
+     * @throws IOException
+     */
+    static Map<String, Number> readSourceHeader(Configuration conf, Path file) throws IOException {
+        Map<String, Number> fields = new HashMap<String, Number>();
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, conf))) {
+            for (Map.Entry<String, String> e : reader.getFooter().getFileMetaData().getKeyValueMetaData().entrySet()) {
+                if (e.getKey().startsWith(FOOTER_BINARY_HEADER)) {
+                    String value = e.getValue();
+                    // integer fields are written as Long, floating-point ones as Double
+                    fields.put(e.getKey().substring(FOOTER_BINARY_HEADER.length()),
+                            (value.indexOf('.') >= 0 || value.indexOf('E') >= 0 || value.indexOf('N') >= 0)
+                                    ? (Number) Double.valueOf(value) : (Number) Long.valueOf(value));
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Builds SEGY file header: EBCDIC textual header and the binary header
+     * Binary header fields of the source SEGY file are kept, except the ones which describe the layout
+     * of the exported file (number format, extended textual headers, data offset and trailers, number of traces).
+     * Without the source header, the sample count and interval are taken from the first exported trace.
+     * @param sourceHeader binary header fields of the source SEGY file, may be empty
+     * @param firstTraceHeader trace header of the first exported trace
+     * @param nFmt number format code
+     * @param nTraces number of exported traces
+     * @return 3600 bytes of the file header
+     */
+    static byte[] buildFileHeader(Map<String, Number> sourceHeader, ByteBuffer firstTraceHeader, int nFmt, long nTraces) {
+        Map<String, Number> fields = new HashMap<String, Number>(sourceHeader);
+        if (!fields.containsKey("sampleInterval") || !fields.containsKey("samplesPerTrace")) {
+            fields.put("sampleInterval", (long) firstTraceHeader.getShort(TRACE_SI_OFFSET));
+            fields.put("samplesPerTrace", (long) firstTraceHeader.getShort(TRACE_NS_OFFSET));
+        }
+        fields.put("formatCode", (long) nFmt);
+        fields.put("extTextHeaders", 0L);
+        fields.put("firstTraceOffset", 0L);
+        fields.put("dataTrailerStanzas", 0L);
+        if (fields.containsKey("numberOfTraces") && fields.get("numberOfTraces").longValue() != 0) {
+            fields.put("numberOfTraces", nTraces);
+        }
+        short sI = fields.get("sampleInterval").shortValue();
+        short nSamples = fields.get("samplesPerTrace").shortValue();
+        String[] lines = {
+                "Exported from Parquet by Segy2ParquetConverterMR",
+                "Data sample format code " + nFmt,
+                "Sample interval " + sI + ", samples per trace " + nSamples,
+        };
+        byte[] header = SEGYFileHeader.build(lines, 0, sI, nSamples, nFmt, ByteOrder.BIG_ENDIAN);
+        // the exported file is big-endian, the byte-order constant (if any) is re-encoded accordingly
+        SEGYFileHeader.putBinaryHeader(header, fields, ByteOrder.BIG_ENDIAN);
+        return header;
+    }
+
+    /**
+     * Main entry point to start ExportJob
+     * @param args: args[0] - job input folder (with Parquet files), args[1] - output SEGY file
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(new Configuration(), new ExportJob(), args);
+        System.exit(res);
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Composite map output key for the gather layout: (gather id, source file, trace id)
+ * Records are partitioned and grouped by the gather id, so a gather spanning several input files
+ * (e.g. a CDP gather of a survey delivered in several files) is one reduce call and one row,
+ * while the source file and the trace id order traces inside a gather (secondary sort), so every
+ * reduce call receives the whole gather in the original trace order regardless of the input splits.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Composite key of a trace within a gather
+ */
+public class GatherKeyWritable implements WritableComparable<GatherKeyWritable> {
+
+    private int gatherID;
+    private String file;
+    private int traceID;
+
+    public GatherKeyWritable() {
+        gatherID = 0;
+        file = "";
+        traceID = 0;
+    }
+
+    /**
+     * Returns an id of the gather (field record number or CDP)
+     * @return gatherID
+     */
+    public int getGatherID() {
+        return gatherID;
+    }
+
+    /**
+     * Returns a path of the source SEGY file
+     * @return file
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Returns a trace id (within SEGY file)
+     * @return traceID
+     */
+    public int getTraceID() {
+        return traceID;
+    }
+
+    /**
+     * Initialize key
+     * @param gatherID gather id
+     * @param file path of the source SEGY file
+     * @param traceID trace id
+     */
+    public void set(int gatherID, String file, int traceID) {
+        this.gatherID = gatherID;
+        this.file = file;
+        this.traceID = traceID;
+    }
+
+    @Override
+    public void write(DataOutput dataOutput) throws IOException {
+        dataOutput.writeInt(gatherID);
+        Text.writeString(dataOutput, file);
+        dataOutput.writeInt(traceID);
+    }
+
+    @Override
+    public void readFields(DataInput dataInput) throws IOException {
+        gatherID = dataInput.readInt();
+        file = Text.readString(dataInput);
+        traceID = dataInput.readInt();
+    }
+
+    /**
+     * Compare keys by gather id, then by source file, then by trace id
+     * @param o: GatherKeyWritable instance to compare
+     * @return negative if less, zero if is equal to, positive if greater
+     */
+    @Override
+    public int compareTo(GatherKeyWritable o) {
+        int res = Integer.compare(gatherID, o.gatherID);
+        if (res == 0) {
+            res = file.compareTo(o.file);
+        }
+        return (res != 0) ? res : Integer.compare(traceID, o.traceID);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GatherKeyWritable)) {
+            return false;
+        }
+        GatherKeyWritable other = (GatherKeyWritable) o;
+        return gatherID == other.gatherID && file.equals(other.file) && traceID == other.traceID;
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * gatherID + file.hashCode()) * 31 + traceID;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GatherKey(gatherId=%d, file=%s, traceId=%d)", gatherID, file, traceID);
+    }
+
+    /**
+     * Groups all traces of a gather (gather id, whatever their source files) into a single reduce call
+     * Serialized keys are compared without deserializing them: the gather id is the first field
+     */
+    public static class GroupingComparator extends WritableComparator {
+
+        public GroupingComparator() {
+            super(GatherKeyWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return Integer.compare(readInt(b1, s1), readInt(b2, s2));
+        }
+
+        @Override
+        public int compare(Object a, Object b) {
+            return Integer.compare(((GatherKeyWritable) a).gatherID, ((GatherKeyWritable) b).gatherID);
+        }
+    }
+
+    /**
+     * Sends all traces of a gather to the same reducer
+     */
+    public static class GatherPartitioner<V> extends Partitioner<GatherKeyWritable, V> {
+
+        @Override
+        public int getPartition(GatherKeyWritable key, V value, int numPartitions) {
+            return (key.gatherID & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+}
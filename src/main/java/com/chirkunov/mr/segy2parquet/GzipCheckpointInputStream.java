@@ -0,0 +1,90 @@
+/**
+ * Decompressed stream of a gzip file which starts at a checkpoint inside a member
+ * The rest of the member is inflated by DeflateDecoder from the checkpoint (bit offset and window);
+ * the members which follow it, if any, are read by the gzip codec of the file from the member end.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+
+/**
+ * Gzip stream resumed at a deflate block boundary
+ */
+public class GzipCheckpointInputStream extends InputStream {
+
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private final FSDataInputStream file;
+    private final long offset;
+    private final DeflateDecoder member;
+    private final CompressionCodec codec;
+    private final Decompressor decompressor;
+    // stream of the following members, created when the checkpoint member ends
+    private InputStream next;
+    private boolean finished;
+
+    /**
+     * Opens stream at the checkpoint
+     * @param file compressed file
+     * @param offset file offset of the byte which holds the first bit of the checkpoint block
+     * @param bitOffset number of bits of that byte which belong to the previous block
+     * @param window uncompressed bytes preceding the checkpoint
+     * @param codec gzip codec for the following members
+     * @param decompressor decompressor of the codec
+     * @throws IOException
+     */
+    public GzipCheckpointInputStream(FSDataInputStream file, long offset, int bitOffset, byte[] window,
+                                     CompressionCodec codec, Decompressor decompressor) throws IOException {
+        this.file = file;
+        this.offset = offset;
+        this.codec = codec;
+        this.decompressor = decompressor;
+        file.seek(offset);
+        this.member = new DeflateDecoder(file, bitOffset, window);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return (n < 0) ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (next == null && !finished) {
+            int n = member.read(b, off, len);
+            if (n >= 0) {
+                return n;
+            }
+            // the deflate data ends at a byte boundary, followed by the CRC32 and ISIZE of the member
+            long memberEnd = offset + (member.getBitsRead() + 7) / 8 + GZIP_TRAILER_SIZE;
+            byte[] magic = new byte[2];
+            if (file.read(memberEnd, magic, 0, 2) == 2 && magic[0] == (byte) 0x1f && magic[1] == (byte) 0x8b) {
+                file.seek(memberEnd);
+                next = codec.createInputStream(file, decompressor);
+            } else {
+                // end of file, or trailing garbage which gzip ignores as well
+                finished = true;
+            }
+        }
+        return finished ? -1 : next.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (next != null) {
+            next.close();
+        } else {
+            file.close();
+        }
+    }
+}
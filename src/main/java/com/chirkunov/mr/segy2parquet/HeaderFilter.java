@@ -0,0 +1,112 @@
+/**
+ * Filter of traces by their header columns
+ * A filter is a comma-separated conjunction of conditions "column op value",
+ * where column is an int32 trace header column (see TraceHeaderWritable.getField),
+ * op is one of ==, !=, <, <=, >, >= and value is an integer, e.g. "ilineID>=100,ilineID<=200".
+ * The same filter is converted to a Parquet FilterPredicate, so that whole row groups are skipped
+ * by their column statistics, and is evaluated on every trace read from the remaining row groups.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators.IntColumn;
+
+/**
+ * Conjunction of conditions on trace header columns
+ */
+public class HeaderFilter {
+
+    private static final Pattern CONDITION = Pattern.compile("\\s*(\\w+)\\s*(==|!=|<=|>=|<|>)\\s*(-?\\d+)\\s*");
+
+    private final List<String> columns = new ArrayList<String>();
+    private final List<String> ops = new ArrayList<String>();
+    private final List<Integer> values = new ArrayList<Integer>();
+
+    /**
+     * Parses filter expression
+     * @param expression comma-separated conditions
+     * @return filter
+     * @throws IllegalArgumentException
+     */
+    public static HeaderFilter parse(String expression) throws IllegalArgumentException {
+        HeaderFilter filter = new HeaderFilter();
+        TraceHeaderWritable probe = new TraceHeaderWritable();
+        for (String item : expression.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            Matcher m = CONDITION.matcher(item);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Wrong header filter condition: " + item);
+            }
+            // fails on unknown columns
+            probe.getField(m.group(1));
+            filter.columns.add(m.group(1));
+            filter.ops.add(m.group(2));
+            filter.values.add(Integer.parseInt(m.group(3)));
+        }
+        return filter;
+    }
+
+    /**
+     * Returns Parquet predicate for row group filtering, null if the filter is empty
+     * @return
+     */
+    public FilterPredicate toPredicate() {
+        FilterPredicate res = null;
+        for (int i = 0; i < columns.size(); i++) {
+            IntColumn column = FilterApi.intColumn(columns.get(i));
+            Integer value = values.get(i);
+            FilterPredicate p;
+            switch (ops.get(i)) {
+                case "==": p = FilterApi.eq(column, value); break;
+                case "!=": p = FilterApi.notEq(column, value); break;
+                case "<": p = FilterApi.lt(column, value); break;
+                case "<=": p = FilterApi.ltEq(column, value); break;
+                case ">": p = FilterApi.gt(column, value); break;
+                default: p = FilterApi.gtEq(column, value); break;
+            }
+            res = (res == null) ? p : FilterApi.and(res, p);
+        }
+        return res;
+    }
+
+    /**
+     * Returns names of the columns used by the filter
+     * @return
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * True if the trace header satisfies all conditions, False otherwise
+     * @param header trace header
+     * @return
+     */
+    public boolean accept(TraceHeaderWritable header) {
+        for (int i = 0; i < columns.size(); i++) {
+            int v = header.getField(columns.get(i));
+            int value = values.get(i);
+            boolean ok;
+            switch (ops.get(i)) {
+                case "==": ok = v == value; break;
+                case "!=": ok = v != value; break;
+                case "<": ok = v < value; break;
+                case "<=": ok = v <= value; break;
+                case ">": ok = v > value; break;
+                default: ok = v >= value; break;
+            }
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -12,6 +12,7 @@ package com.chirkunov.mr.segy2parquet;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Utility class for SEGY read numbers operations
@@ -87,6 +88,119 @@ public class NumFormatUtil {
         }
     }
 
+    /**
+     * Reads next trace data sample from buffer, according to the number format code
+     * Unlike the stream-based version it does not allocate, so it is used in the per-sample decode loop
+     * @param format SEGY number format specification
+     * @param bb Buffer with trace data samples, positioned at the sample to read
+     * @return
+     * @throws IllegalArgumentException
+     */
+    public static double readFrom(int format, ByteBuffer bb) throws IllegalArgumentException{
+        switch (format) {
+            case(1):
+                return ibmToFloat(bb.getInt()); // IBM hexadecimal floating point
+            case(2):
+                return bb.getInt(); // two's complement integer
+            case (3):
+                return bb.getShort(); // two's complement short
+            case (4):
+                throw new IllegalArgumentException("Not supported"); // fixed-point with gain (obsolete)
+            case (5):
+                return bb.getFloat(); // 4-byte IEEE floating point
+            case(6):
+                throw new IllegalArgumentException("Not supported");
+            case(7):
+                throw new IllegalArgumentException("Not supported");
+            case(8):
+                return bb.get() & 0xFF; // read one byte
+            default:
+                return bb.getInt();
+        }
+    }
+
+    /**
+     * Converts IBM hexadecimal floating point bits to float
+     * Same arithmetic as floatFromBytes, but the power of 16 is applied as an exact binary exponent shift
+     * @param bits IBM float bits
+     * @return
+     */
+    public static float ibmToFloat(int bits) {
+        int mant = bits & 0x00FFFFFF;
+        if (mant == 0) return 0.0f;
+        int exp = ((bits >>> 24) & 127) - 64;
+        double res = Math.scalb((double) mant, 4 * (exp - 6));
+        return (float) ((bits < 0) ? -res : res);
+    }
+
+    /**
+     * Writes trace data sample to buffer, according to the number format code (mirrors readFrom)
+     * Integer formats are rounded and clamped to their range
+     * @param format SEGY number format specification
+     * @param value trace data sample
+     * @param bb Buffer to write the sample to
+     * @throws IllegalArgumentException
+     */
+    public static void writeTo(int format, double value, ByteBuffer bb) throws IllegalArgumentException{
+        switch (format) {
+            case(1):
+                bb.putInt(floatToIbm((float) value)); // IBM hexadecimal floating point
+                break;
+            case(2):
+                bb.putInt((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.round(value)))); // two's complement integer
+                break;
+            case (3):
+                bb.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)))); // two's complement short
+                break;
+            case (4):
+                throw new IllegalArgumentException("Not supported"); // fixed-point with gain (obsolete)
+            case (5):
+                bb.putFloat((float) value); // 4-byte IEEE floating point
+                break;
+            case(6):
+                throw new IllegalArgumentException("Not supported");
+            case(7):
+                throw new IllegalArgumentException("Not supported");
+            case(8):
+                bb.put((byte) Math.max(0, Math.min(255, Math.round(value)))); // one byte, as read by readFrom
+                break;
+            default:
+                bb.putInt((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.round(value))));
+                break;
+        }
+    }
+
+    /**
+     * Converts float to IBM hexadecimal floating point bits (inverse of ibmToFloat)
+     * The IEEE mantissa is shifted right until the exponent is a multiple of 4 (a power of 16);
+     * NaN and infinity are not representable and are written as the largest IBM magnitude
+     * @param value float value
+     * @return IBM float bits
+     */
+    public static int floatToIbm(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = bits & 0x80000000;
+        if ((bits & 0x7fffffff) == 0) {
+            return 0;
+        }
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return sign | 0x7fffffff;
+        }
+        int exp = ((bits >>> 23) & 0xff);
+        int mant = bits & 0x007fffff;
+        if (exp == 0) {
+            // subnormal: far below the IBM range resolution
+            return 0;
+        }
+        mant |= 0x00800000;
+        int t = exp - 126;
+        while ((t & 0x3) != 0) {
+            t++;
+            mant >>= 1;
+        }
+        return sign | (((t >> 2) + 64) << 24) | mant;
+    }
+
     /**
      * Ad hoc method to read IBM hexadecimal floating point from binary stream
      * See also the StackOverflow discussion regarding this topic: @see <a href="https://stackoverflow.com/questions/34565189/java-ieee-754-float-to-ibm-float-byte4-conversion">https://stackoverflow.com/questions/34565189/java-ieee-754-float-to-ibm-float-byte4-conversion</a>
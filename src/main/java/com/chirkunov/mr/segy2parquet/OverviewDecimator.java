@@ -0,0 +1,166 @@
+/**
+ * Decimation of traces to a reduced-resolution overview
+ * An overview keeps every Nth inline and crossline (spatial factor) and every Mth sample (time factor).
+ * Before the time decimation samples are low-pass filtered with a Hamming-windowed sinc FIR filter
+ * (cutoff at the Nyquist frequency of the decimated trace), so frequencies above the new Nyquist
+ * do not alias into the overview. Only the kept output samples are computed.
+ * The spatial decimation is plain subsampling without a filter: neighbouring traces are read by other
+ * map tasks, so spatial overviews alias wavenumbers above the decimated inline/crossline Nyquist.
+ * A decimated sample interval above 65535 (unsigned 16-bit SEGY field) is rejected.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decimator of traces for one overview level
+ */
+public class OverviewDecimator {
+
+    // number of filter taps on each side of the center, per unit of the time factor
+    private static final int HALF_TAPS_PER_FACTOR = 4;
+
+    private final int spatialFactor;
+    private final int timeFactor;
+    // symmetric filter taps, taps[0] is the center tap
+    private final double[] taps;
+
+    /**
+     * Creates decimator
+     * @param spatialFactor inline/crossline decimation factor
+     * @param timeFactor samples decimation factor
+     * @throws IllegalArgumentException
+     */
+    public OverviewDecimator(int spatialFactor, int timeFactor) throws IllegalArgumentException {
+        if (spatialFactor <= 0 || timeFactor <= 0) {
+            throw new IllegalArgumentException("Decimation factors should be positive: " + spatialFactor + ":" + timeFactor);
+        }
+        this.spatialFactor = spatialFactor;
+        this.timeFactor = timeFactor;
+        this.taps = designFilter(timeFactor);
+    }
+
+    /**
+     * Parses overview levels, e.g. "2:2,4:4" (spatial factor:time factor, comma-separated)
+     * @param setting overview levels
+     * @return decimators, empty list if the setting is null or empty
+     * @throws IllegalArgumentException
+     */
+    public static List<OverviewDecimator> parse(String setting) throws IllegalArgumentException {
+        List<OverviewDecimator> res = new ArrayList<OverviewDecimator>();
+        if (setting == null) {
+            return res;
+        }
+        for (String item : setting.split(",")) {
+            if (item.trim().isEmpty()) {
+                continue;
+            }
+            String[] factors = item.split(":");
+            if (factors.length != 2) {
+                throw new IllegalArgumentException("Overview should be defined as spatial:time factors: " + item);
+            }
+            res.add(new OverviewDecimator(Integer.parseInt(factors[0].trim()), Integer.parseInt(factors[1].trim())));
+        }
+        return res;
+    }
+
+    /**
+     * Designs low-pass Hamming-windowed sinc filter, normalized to the unit gain at zero frequency
+     * @param factor decimation factor
+     * @return half of the symmetric filter taps, starting from the center tap
+     */
+    private static double[] designFilter(int factor) {
+        if (factor == 1) {
+            return new double[]{1.0};
+        }
+        int half = HALF_TAPS_PER_FACTOR * factor;
+        double cutoff = 0.5 / factor;
+        double[] h = new double[half + 1];
+        double sum = 0;
+        for (int k = 0; k <= half; k++) {
+            double sinc = (k == 0) ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * k) / (Math.PI * k);
+            double window = 0.54 + 0.46 * Math.cos(Math.PI * k / (half + 1));
+            h[k] = sinc * window;
+            sum += (k == 0) ? h[k] : 2 * h[k];
+        }
+        for (int k = 0; k <= half; k++) {
+            h[k] /= sum;
+        }
+        return h;
+    }
+
+    /**
+     * True if the trace is kept in the overview (inline and crossline are multiples of the spatial factor, no spatial filter)
+     * @param header trace header
+     * @return
+     */
+    public boolean accept(TraceHeaderWritable header) {
+        return Math.floorMod(header.getILineID(), spatialFactor) == 0
+                && Math.floorMod(header.getXLineID(), spatialFactor) == 0;
+    }
+
+    /**
+     * Filters and decimates trace samples, updates header and statistics of the output trace
+     * Samples beyond the trace ends are extended with the edge samples, NaN samples are left out of the filter sum
+     * @param in full-resolution trace
+     * @param out reused overview trace
+     */
+    public void decimate(TraceWritable in, TraceWritable out) {
+        TraceHeaderWritable header = out.getTraceHeader();
+        header.set(in.getTraceHeader());
+        int sI = in.getTraceHeader().getSampleInterval() * timeFactor;
+        if (sI > 0xFFFF) {
+            // the SEGY sample interval is unsigned 16 bits
+            throw new IllegalArgumentException("Not supported overview sample interval: " + sI + " (time factor " + timeFactor + ")");
+        }
+        header.setField("sI", sI);
+
+        int length = in.getTraceLength();
+        int outLength = (length + timeFactor - 1) / timeFactor;
+        double[] src = in.getSamples();
+        double[] dst = out.resizeTraceData(outLength);
+        int half = taps.length - 1;
+        for (int i = 0; i < outLength; i++) {
+            int center = i * timeFactor;
+            double acc = 0;
+            double weight = 0;
+            for (int k = -half; k <= half; k++) {
+                int j = Math.min(Math.max(center + k, 0), length - 1);
+                double v = src[j];
+                if (!Double.isNaN(v)) {
+                    double tap = taps[Math.abs(k)];
+                    acc += tap * v;
+                    weight += tap;
+                }
+            }
+            dst[i] = (weight == 0) ? Double.NaN : acc / weight;
+        }
+        header.setNSamples(outLength);
+        out.updateStatistics();
+    }
+
+    /**
+     * Returns name of the overview named output
+     * @return
+     */
+    public String getName() {
+        return "overview" + spatialFactor + "x" + timeFactor;
+    }
+
+    /**
+     * Returns output path of the overview files, relative to the job output folder
+     * @return
+     */
+    public String getBaseOutputPath() {
+        return "_overview_" + spatialFactor + "x" + timeFactor + "/part";
+    }
+
+    public int getSpatialFactor() {
+        return spatialFactor;
+    }
+
+    public int getTimeFactor() {
+        return timeFactor;
+    }
+}
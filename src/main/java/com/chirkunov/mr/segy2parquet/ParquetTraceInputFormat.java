@@ -0,0 +1,76 @@
+/**
+ * Custom FileInputFormat implementation to read traces back from the Parquet files written by ConverterJob
+ * (trace layout, see TraceGroupWriteSupport) within Hadoop
+ * Traces are read column-wise into reusable TraceHeaderWritable/TraceWritable instances, without
+ * materializing Parquet Group records, so follow-on jobs (attribute extraction, QC) get the same
+ * key/value types as the SEGY input.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.hadoop.ParquetInputFormat;
+
+/**
+ * FileInputFormat implementation for Parquet trace files
+ */
+public class ParquetTraceInputFormat extends FileInputFormat<TraceHeaderWritable, TraceWritable> {
+
+	// Setting of the comma-separated list of columns to read, all columns by default
+	public static final String COLUMNS_SETTING = "com.chirkunov.mr.segy2parquet.PARQUET_TRACE_COLUMNS";
+	// Setting of the trace header filter (see HeaderFilter)
+	public static final String HEADER_FILTER_SETTING = "com.chirkunov.mr.segy2parquet.PARQUET_TRACE_FILTER";
+
+	/**
+	 * Restricts columns to read. Header-only projections never read (or decompress) trace data samples
+	 * Without traceData, statistics columns which are not listed are left unset (NaN, nanCount -1, dead false)
+	 * @param job job to configure
+	 * @param columns column names of the trace schema
+	 */
+	public static void setColumns(Job job, String... columns) {
+		job.getConfiguration().setStrings(COLUMNS_SETTING, columns);
+	}
+
+	/**
+	 * Sets trace header filter, e.g. "ilineID>=100,ilineID<=200"
+	 * Row groups are skipped by their column statistics, remaining traces are filtered one by one
+	 * @param conf job configuration
+	 * @param expression filter expression (see HeaderFilter)
+	 * @throws IllegalArgumentException
+	 */
+	public static void setHeaderFilter(Configuration conf, String expression) throws IllegalArgumentException {
+		FilterPredicate predicate = HeaderFilter.parse(expression).toPredicate();
+		conf.set(HEADER_FILTER_SETTING, expression);
+		if (predicate != null) {
+			ParquetInputFormat.setFilterPredicate(conf, predicate);
+		}
+	}
+
+	/**
+	 * Returns ParquetTraceRecordReader
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Override
+	public RecordReader<TraceHeaderWritable, TraceWritable> createRecordReader(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return new ParquetTraceRecordReader();
+	}
+
+	/**
+	 * Parquet files are split on row group boundaries by the record reader
+	 */
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return true;
+	}
+}
@@ -0,0 +1,383 @@
+/**
+ * Custom implementation of RecordReader for extracting trace records from Parquet trace files
+ * Column readers of all projected columns advance in lockstep, one trace at a time, and write
+ * primitive values straight into the reused key and value, so no Group records are built
+ * and a trace is never boxed. Row groups are selected by the split range and by the header filter
+ * statistics; traces of the remaining row groups which fail the filter are skipped without decoding samples.
+ * Each projected statistics column is read on its own. Statistics columns which are not projected are
+ * recomputed from the samples if traceData is projected, otherwise they are left unset (NaN, nanCount -1, dead false).
+ * Values are taken from the column readers one at a time: parquet-mr 1.11 decodes whole pages,
+ * but has no public batch read API for primitive columns.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.parquet.HadoopReadOptions;
+import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetInputFormat;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+
+/**
+ * Custom implementation of RecordReader<TraceHeaderWritable, TraceWritable> to read Parquet traces
+ */
+public class ParquetTraceRecordReader extends RecordReader<TraceHeaderWritable, TraceWritable> {
+
+	// int32 trace header columns
+	private static final List<String> HEADER_COLUMNS = Arrays.asList("traceID", "fieldRecordNumberID", "cdpID",
+			"distSRG", "srcX", "srcY", "sI", "ilineID", "xlineID");
+	// trace statistics columns
+	private static final List<String> STATISTICS_COLUMNS = Arrays.asList("traceMin", "traceMax", "traceMean",
+			"traceRms", "nanCount", "dead");
+	// samples columns: lossless and quantized representation
+	private static final List<String> SAMPLES_COLUMNS = Arrays.asList("traceData", "quantBits", "quantScale",
+			"quantOffset", "traceDataQ");
+
+	private ParquetFileReader reader;
+	private MessageType requestedSchema;
+	private String createdBy;
+	private TraceHeaderWritable key = new TraceHeaderWritable();
+	private TraceWritable value = new TraceWritable();
+	private HeaderFilter filter;
+	private List<Column> headerColumns = new ArrayList<Column>();
+	private Column[] statistics = new Column[STATISTICS_COLUMNS.size()];
+	private Column traceData;
+	private Column quantBits;
+	private Column quantScale;
+	private Column quantOffset;
+	private Column traceDataQ;
+	private Column traceHeader;
+	private long totalRows;
+	private long rowsRead;
+	private long rowsLeftInGroup;
+
+	/**
+	 * Column reader with the number of consumed values
+	 */
+	private static class Column {
+		private final String name;
+		private final ColumnReader reader;
+		private final int maxDefinitionLevel;
+		private final long totalValues;
+		private long consumed;
+
+		Column(String name, ColumnReader reader, long totalValues) {
+			this.name = name;
+			this.reader = reader;
+			this.maxDefinitionLevel = reader.getDescriptor().getMaxDefinitionLevel();
+			this.totalValues = totalValues;
+		}
+
+		boolean isDefined() {
+			return reader.getCurrentDefinitionLevel() == maxDefinitionLevel;
+		}
+
+		void next() {
+			reader.consume();
+			consumed++;
+		}
+
+		// skips current value without decoding it
+		void skipValue() {
+			if (isDefined()) {
+				reader.skip();
+			}
+			next();
+		}
+
+		// true if the next value belongs to the same row (repeated column)
+		boolean continuesRow() {
+			return consumed < totalValues && reader.getCurrentRepetitionLevel() > 0;
+		}
+
+		// skips all values of the current row
+		void skipRow() {
+			do {
+				skipValue();
+			} while (continuesRow());
+		}
+	}
+
+	/**
+	 * Close read session
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (reader != null) {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Returns key for current record
+	 * @return
+	 */
+	@Override
+	public TraceHeaderWritable getCurrentKey() {
+		return key;
+	}
+
+	/**
+	 * Returns value for current record
+	 * @return
+	 */
+	@Override
+	public TraceWritable getCurrentValue() {
+		return value;
+	}
+
+	/**
+	 * Returns share of the rows read from the selected row groups
+	 * @return
+	 */
+	@Override
+	public float getProgress() {
+		return (totalRows == 0) ? 1.0f : (float) rowsRead / totalRows;
+	}
+
+	/**
+	 * Initialize ParquetTraceRecordReader
+	 * @param split set of split ranges
+	 * @param context Task attempt context
+	 * @throws IOException
+	 */
+	@Override
+	public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+		FileSplit fileSplit = (FileSplit) split;
+		Configuration conf = context.getConfiguration();
+		String filterExpression = conf.get(ParquetTraceInputFormat.HEADER_FILTER_SETTING);
+		filter = (filterExpression == null) ? null : HeaderFilter.parse(filterExpression);
+
+		// row groups are assigned to the split by their midpoint, and pruned by the filter statistics
+		ParquetReadOptions options = HadoopReadOptions.builder(conf)
+				.withRange(fileSplit.getStart(), fileSplit.getStart() + fileSplit.getLength())
+				.withRecordFilter(ParquetInputFormat.getFilter(conf))
+				.build();
+		reader = new ParquetFileReader(HadoopInputFile.fromPath(fileSplit.getPath(), conf), options);
+		MessageType fileSchema = reader.getFooter().getFileMetaData().getSchema();
+		createdBy = reader.getFooter().getFileMetaData().getCreatedBy();
+		if (!fileSchema.containsField("traceID")) {
+			throw new IOException("Not a trace layout Parquet file: " + fileSplit.getPath());
+		}
+		requestedSchema = project(fileSchema, conf.getTrimmedStrings(ParquetTraceInputFormat.COLUMNS_SETTING));
+		reader.setRequestedSchema(requestedSchema);
+		for (BlockMetaData block : reader.getRowGroups()) {
+			totalRows += block.getRowCount();
+		}
+	}
+
+	/**
+	 * Builds requested schema from the projected columns, plus the columns needed by the filter
+	 * and by the quantized samples decoding
+	 */
+	private MessageType project(MessageType fileSchema, String[] columns) {
+		if (columns.length == 0) {
+			return fileSchema;
+		}
+		Set<String> names = new HashSet<String>(Arrays.asList(columns));
+		if (filter != null) {
+			names.addAll(filter.getColumns());
+		}
+		if (names.contains("traceData")) {
+			names.addAll(SAMPLES_COLUMNS);
+		}
+		List<Type> fields = new ArrayList<Type>();
+		for (Type field : fileSchema.getFields()) {
+			if (names.contains(field.getName())) {
+				fields.add(field);
+			}
+		}
+		return new MessageType(fileSchema.getName(), fields);
+	}
+
+	/**
+	 * Creates column readers for the next row group
+	 * @return False if there are no more row groups
+	 * @throws IOException
+	 */
+	private boolean nextRowGroup() throws IOException {
+		PageReadStore pages = reader.readNextRowGroup();
+		if (pages == null) {
+			return false;
+		}
+		rowsLeftInGroup = pages.getRowCount();
+		ColumnReadStoreImpl store = new ColumnReadStoreImpl(pages,
+				new GroupRecordConverter(requestedSchema).getRootConverter(), requestedSchema, createdBy);
+		headerColumns.clear();
+		Arrays.fill(statistics, null);
+		traceData = quantBits = quantScale = quantOffset = traceDataQ = traceHeader = null;
+		for (ColumnDescriptor descriptor : requestedSchema.getColumns()) {
+			String name = descriptor.getPath()[0];
+			// number of values (with nulls) of the column chunk, from its pages
+			Column column = new Column(name, store.getColumnReader(descriptor),
+					pages.getPageReader(descriptor).getTotalValueCount());
+			if (HEADER_COLUMNS.contains(name)) {
+				headerColumns.add(column);
+			} else if (STATISTICS_COLUMNS.contains(name)) {
+				statistics[STATISTICS_COLUMNS.indexOf(name)] = column;
+			} else if ("traceData".equals(name)) {
+				traceData = column;
+			} else if ("quantBits".equals(name)) {
+				quantBits = column;
+			} else if ("quantScale".equals(name)) {
+				quantScale = column;
+			} else if ("quantOffset".equals(name)) {
+				quantOffset = column;
+			} else if ("traceDataQ".equals(name)) {
+				traceDataQ = column;
+			} else if ("traceHeader".equals(name)) {
+				traceHeader = column;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the next trace, which satisfies the header filter
+	 * @return
+	 * @throws IOException
+	 */
+	@Override
+	public boolean nextKeyValue() throws IOException {
+		while (true) {
+			if (rowsLeftInGroup == 0 && !nextRowGroup()) {
+				return false;
+			}
+			rowsLeftInGroup--;
+			rowsRead++;
+			for (Column column : headerColumns) {
+				key.setField(column.name, column.reader.getInteger());
+				column.next();
+			}
+			if (filter != null && !filter.accept(key)) {
+				skipRow();
+				continue;
+			}
+			readSamples();
+			readStatistics();
+			readRawHeader();
+			key.setNSamples(value.getTraceLength());
+			value.getTraceHeader().set(key);
+			return true;
+		}
+	}
+
+	/**
+	 * Skips samples, statistics and raw header of the current row
+	 */
+	private void skipRow() {
+		for (Column column : Arrays.asList(traceData, quantBits, quantScale, quantOffset, traceDataQ, traceHeader)) {
+			if (column != null) {
+				column.skipRow();
+			}
+		}
+		for (Column column : statistics) {
+			if (column != null) {
+				column.skipRow();
+			}
+		}
+	}
+
+	/**
+	 * Reads samples of the current row, decoding quantized ones if the trace was stored quantized
+	 */
+	private void readSamples() {
+		if (traceData == null) {
+			value.resizeTraceData(0);
+			return;
+		}
+		double[] samples = value.resizeTraceData(0);
+		int n = 0;
+		do {
+			if (traceData.isDefined()) {
+				if (n == samples.length) {
+					samples = value.resizeTraceData(n + 1);
+				}
+				samples[n++] = traceData.reader.getDouble();
+			}
+			traceData.next();
+		} while (traceData.continuesRow());
+		value.resizeTraceData(n);
+
+		if (quantBits == null || quantScale == null || quantOffset == null || traceDataQ == null) {
+			return;
+		}
+		if (traceDataQ.isDefined()) {
+			int bits = quantBits.reader.getInteger();
+			double scale = quantScale.reader.getDouble();
+			double offset = quantOffset.reader.getDouble();
+			Binary quantized = traceDataQ.reader.getBinary();
+			byte[] bytes = quantized.getBytesUnsafe();
+			samples = value.resizeTraceData(TraceQuantizer.sampleCount(bytes.length, bits));
+			TraceQuantizer.decode(bytes, bits, scale, offset, samples);
+			quantBits.next();
+			quantScale.next();
+			quantOffset.next();
+			traceDataQ.next();
+		} else {
+			quantBits.skipValue();
+			quantScale.skipValue();
+			quantOffset.skipValue();
+			traceDataQ.skipValue();
+		}
+	}
+
+	/**
+	 * Reads projected statistics of the current row, the others are recomputed from the samples or left unset
+	 */
+	private void readStatistics() {
+		if (traceData != null) {
+			value.updateStatistics();
+		} else {
+			value.setStatistics(Double.NaN, Double.NaN, Double.NaN, Double.NaN, -1, false);
+		}
+		double traceMin = (statistics[0] == null) ? value.getTraceMin() : statistics[0].reader.getDouble();
+		double traceMax = (statistics[1] == null) ? value.getTraceMax() : statistics[1].reader.getDouble();
+		double traceMean = (statistics[2] == null) ? value.getTraceMean() : statistics[2].reader.getDouble();
+		double traceRms = (statistics[3] == null) ? value.getTraceRms() : statistics[3].reader.getDouble();
+		int nanCount = (statistics[4] == null) ? value.getNanCount() : statistics[4].reader.getInteger();
+		boolean dead = (statistics[5] == null) ? value.isDead() : statistics[5].reader.getBoolean();
+		for (Column column : statistics) {
+			if (column != null) {
+				column.next();
+			}
+		}
+		value.setStatistics(traceMin, traceMax, traceMean, traceRms, nanCount, dead);
+	}
+
+	/**
+	 * Reads raw trace header of the current row, if it is projected and stored
+	 */
+	private void readRawHeader() {
+		key.clearRawHeader();
+		if (traceHeader == null) {
+			return;
+		}
+		if (traceHeader.isDefined()) {
+			Binary raw = traceHeader.reader.getBinary();
+			key.setRawHeader(raw.getBytesUnsafe(), 0, raw.length());
+		}
+		traceHeader.next();
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * Benchmark of the quantized sample encodings against the lossless SNAPPY double output
+ * It synthesizes band-limited traces with decaying amplitude and noise, runs them through
+ * the same decode (TraceWritable.set) and row-building (TraceGroup) path as the job,
+ * writes them to local Parquet files and reports compression ratio, reconstruction error and throughput.
+ * The reconstruction error is the worst per-trace RMS error relative to the trace RMS amplitude,
+ * the quantity bounded by the maximal relative error.
+ * Usage: QuantizationBenchmark [traces] [samples per trace] [max relative error]
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+/**
+ * Benchmark of the quantized sample encodings
+ */
+public class QuantizationBenchmark {
+
+    // SEGY number format code of the synthetic traces (4-byte IEEE floating point)
+    private static final int NUM_FORMAT = 5;
+
+    public static void main(String[] args) throws Exception {
+        int nTraces = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        int nSamples = (args.length > 1) ? Integer.parseInt(args[1]) : 1500;
+        double maxRelError = (args.length > 2) ? Double.parseDouble(args[2]) : ConverterJob.DEFAULT_QUANT_MAX_ERROR;
+
+        byte[][] traces = synthesize(nTraces, nSamples);
+        File dir = Files.createTempDirectory("quant-bench").toFile();
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        try {
+            System.out.println(String.format("traces=%d, samples=%d, maxRelError=%g", nTraces, nSamples, maxRelError));
+            System.out.println(String.format("%-8s %12s %8s %10s %12s %10s %12s %10s",
+                    "encoding", "bytes", "ratio", "quantized", "maxRelErr", "snrDb", "traces/s", "MB/s"));
+            String[] encodings = new String[]{"double", "int16", "int8"};
+            // warm-up pass, so that the first measured encoding is not penalized by JIT compilation
+            for (String encoding : encodings) {
+                run(conf, new Path(new File(dir, "warmup-" + encoding + ".parquet").toURI()), encoding, traces, nSamples, maxRelError);
+            }
+            long baseline = 0;
+            for (String encoding : encodings) {
+                Result r = run(conf, new Path(new File(dir, encoding + ".parquet").toURI()), encoding, traces, nSamples, maxRelError);
+                if (baseline == 0) {
+                    baseline = r.bytes;
+                }
+                double seconds = r.nanos / 1e9;
+                System.out.println(String.format("%-8s %12d %8.2f %9.1f%% %12.3g %10.1f %12.0f %10.1f",
+                        encoding, r.bytes, (double) baseline / r.bytes, 100.0 * r.quantized / nTraces,
+                        r.maxRelError, r.snrDb(), nTraces / seconds,
+                        (double) nTraces * nSamples * Double.BYTES / seconds / (1024 * 1024)));
+            }
+        } finally {
+            fs.delete(new Path(dir.toURI()), true);
+        }
+    }
+
+    /**
+     * Encoding run summary
+     */
+    private static class Result {
+        long bytes;
+        long nanos;
+        int quantized;
+        double maxRelError;
+        double signalEnergy;
+        double errorEnergy;
+
+        double snrDb() {
+            return (errorEnergy == 0) ? Double.POSITIVE_INFINITY : 10 * Math.log10(signalEnergy / errorEnergy);
+        }
+    }
+
+    /**
+     * Decodes, converts and writes all traces with the given encoding
+     */
+    private static Result run(Configuration conf, Path file, String encoding, byte[][] traces, int nSamples,
+                              double maxRelError) throws IOException {
+        Result r = new Result();
+        TraceQuantizer quantizer = TraceQuantizer.forEncoding(encoding, maxRelError);
+        TraceWritable tw = new TraceWritable();
+        TraceGroup row = new TraceGroup();
+        long start = System.nanoTime();
+        try (ParquetWriter<Group> writer = new TraceGroupWriteSupport.Builder(file)
+                .withConf(conf)
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .build()) {
+            for (byte[] trace : traces) {
+                tw.set(trace, NUM_FORMAT, nSamples);
+                writer.write(row.set(tw.getTraceHeader(), tw, quantizer));
+            }
+        }
+        r.nanos = System.nanoTime() - start;
+        r.bytes = file.getFileSystem(conf).getFileStatus(file).getLen();
+
+        // reconstruction error is measured outside of the timed section
+        for (byte[] trace : traces) {
+            tw.set(trace, NUM_FORMAT, nSamples);
+            double[] samples = tw.getTraceDataDouble();
+            double[] decoded = samples;
+            if (quantizer != null && quantizer.quantize(samples, samples.length, tw.getTraceMin(), tw.getTraceMax(), tw.getNanCount())) {
+                r.quantized++;
+                decoded = TraceQuantizer.decode(quantizer.getBytes(), quantizer.getBits(), quantizer.getScale(), quantizer.getOffset());
+            }
+            double traceSignal = 0;
+            double traceError = 0;
+            for (int i = 0; i < samples.length; i++) {
+                double err = decoded[i] - samples[i];
+                traceSignal += samples[i] * samples[i];
+                traceError += err * err;
+            }
+            r.signalEnergy += traceSignal;
+            r.errorEnergy += traceError;
+            if (traceSignal > 0) {
+                r.maxRelError = Math.max(r.maxRelError, Math.sqrt(traceError / traceSignal));
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Builds raw SEGY traces (header + IEEE samples): a sum of sinusoids with exponential decay and noise
+     */
+    private static byte[][] synthesize(int nTraces, int nSamples) {
+        Random random = new Random(42);
+        byte[][] traces = new byte[nTraces][];
+        for (int t = 0; t < nTraces; t++) {
+            ByteBuffer bb = ByteBuffer.allocate(SEGYInputFormat.TRACE_HEADER_SIZE + nSamples * 4);
+            bb.putInt(4, t + 1);
+            bb.putInt(8, t / 100);
+            bb.putShort(114, (short) nSamples);
+            bb.putShort(116, (short) 2000);
+            bb.putInt(188, t / 100);
+            bb.putInt(192, t % 100);
+            bb.position(SEGYInputFormat.TRACE_HEADER_SIZE);
+            double f1 = 0.01 + 0.02 * random.nextDouble();
+            double f2 = 0.05 + 0.05 * random.nextDouble();
+            double amplitude = 1000 * (0.5 + random.nextDouble());
+            for (int i = 0; i < nSamples; i++) {
+                double decay = Math.exp(-3.0 * i / nSamples);
+                double v = amplitude * decay * (Math.sin(2 * Math.PI * f1 * i) + 0.5 * Math.sin(2 * Math.PI * f2 * i))
+                        + 5 * random.nextGaussian();
+                bb.putFloat((float) v);
+            }
+            traces[t] = bb.array();
+        }
+        return traces;
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * SEGY file header (3200-byte EBCDIC textual header + 400-byte binary header) helpers
+ * Builds (or re-encodes) file headers for the SEGY writers (ExportJob, SEGYGenerator), detects the byte order
+ * of the SEGY files: rev2 byte-order constant (bytes 3297-3300), or the number format code
+ * which only makes sense in one of the byte orders for rev1 files, and decodes the textual header
+ * and all rev1/rev2 binary header fields for the output metadata.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SEGY file header
+ */
+public class SEGYFileHeader {
+
+    // textual header size and number of its 80-character lines
+    public static final int TEXT_HEADER_SIZE = 3200;
+    private static final int TEXT_LINES = 40;
+    private static final int TEXT_LINE_SIZE = 80;
+    // charset of the textual header
+    public static final Charset TEXT_CHARSET = Charset.forName("IBM037");
+    // full file header size
+    public static final int SIZE = 3600;
+    // binary header offsets (from the file start)
+    private static final int TRACES_PER_RECORD_OFFSET = 3212;
+    private static final int SI_OFFSET = 3216;
+    private static final int NS_OFFSET = 3220;
+    private static final int NUM_FORMAT_OFFSET = 3224;
+    private static final int BYTE_ORDER_OFFSET = 3296;
+    private static final int REVISION_OFFSET = 3500;
+    // rev2 byte-order constant, reads as 0x01020304 in the byte order of the file
+    private static final int BYTE_ORDER_CONSTANT = 0x01020304;
+    // range of the defined number format codes
+    private static final int MAX_NUM_FORMAT = 16;
+
+    /**
+     * Binary header field: name, 1-based byte position in the file (as in the SEGY standard) and size in bytes
+     */
+    private static final class BinaryField {
+        final String name;
+        final int position;
+        final int size;
+        final boolean floating;
+
+        BinaryField(String name, int position, int size, boolean floating) {
+            this.name = name;
+            this.position = position;
+            this.size = size;
+            this.floating = floating;
+        }
+    }
+
+    // binary header fields of rev1 (bytes 3201-3260, 3501-3506) and rev2 (bytes 3261-3300, 3507-3532)
+    private static final BinaryField[] BINARY_FIELDS = {
+            new BinaryField("jobID", 3201, 4, false),
+            new BinaryField("lineNumber", 3205, 4, false),
+            new BinaryField("reelNumber", 3209, 4, false),
+            new BinaryField("tracesPerEnsemble", 3213, 2, false),
+            new BinaryField("auxTracesPerEnsemble", 3215, 2, false),
+            new BinaryField("sampleInterval", 3217, 2, false),
+            new BinaryField("sampleIntervalOriginal", 3219, 2, false),
+            new BinaryField("samplesPerTrace", 3221, 2, false),
+            new BinaryField("samplesPerTraceOriginal", 3223, 2, false),
+            new BinaryField("formatCode", 3225, 2, false),
+            new BinaryField("ensembleFold", 3227, 2, false),
+            new BinaryField("traceSorting", 3229, 2, false),
+            new BinaryField("verticalSum", 3231, 2, false),
+            new BinaryField("sweepFrequencyStart", 3233, 2, false),
+            new BinaryField("sweepFrequencyEnd", 3235, 2, false),
+            new BinaryField("sweepLength", 3237, 2, false),
+            new BinaryField("sweepType", 3239, 2, false),
+            new BinaryField("sweepChannel", 3241, 2, false),
+            new BinaryField("sweepTaperStart", 3243, 2, false),
+            new BinaryField("sweepTaperEnd", 3245, 2, false),
+            new BinaryField("taperType", 3247, 2, false),
+            new BinaryField("correlated", 3249, 2, false),
+            new BinaryField("gainRecovered", 3251, 2, false),
+            new BinaryField("amplitudeRecovery", 3253, 2, false),
+            new BinaryField("measurementSystem", 3255, 2, false),
+            new BinaryField("impulsePolarity", 3257, 2, false),
+            new BinaryField("vibratoryPolarity", 3259, 2, false),
+            new BinaryField("extTracesPerEnsemble", 3261, 4, false),
+            new BinaryField("extAuxTracesPerEnsemble", 3265, 4, false),
+            new BinaryField("extSamplesPerTrace", 3269, 4, false),
+            new BinaryField("extSampleInterval", 3273, 8, true),
+            new BinaryField("extSampleIntervalOriginal", 3281, 8, true),
+            new BinaryField("extSamplesPerTraceOriginal", 3289, 4, false),
+            new BinaryField("extEnsembleFold", 3293, 4, false),
+            new BinaryField("byteOrderConstant", 3297, 4, false),
+            new BinaryField("revision", 3501, 2, false),
+            new BinaryField("fixedLengthTraces", 3503, 2, false),
+            new BinaryField("extTextHeaders", 3505, 2, false),
+            new BinaryField("maxTraceHeaders", 3507, 4, false),
+            new BinaryField("timeBasisCode", 3511, 2, false),
+            new BinaryField("numberOfTraces", 3513, 8, false),
+            new BinaryField("firstTraceOffset", 3521, 8, false),
+            new BinaryField("dataTrailerStanzas", 3529, 4, false),
+    };
+
+    /**
+     * Builds SEGY file header: EBCDIC textual header with the given lines ("C nn" prefixed) and the binary header
+     * Little-endian headers are marked as rev2 with the byte-order constant, big-endian ones as rev1
+     * @param lines textual header lines (up to 39, the last line ends the textual header)
+     * @param tracesPerRecord number of data traces per ensemble
+     * @param sI sample interval
+     * @param nSamples number of samples per trace
+     * @param nFmt number format code
+     * @param order byte order of the binary header
+     * @return 3600 bytes of the file header
+     */
+    public static byte[] build(String[] lines, int tracesPerRecord, int sI, int nSamples, int nFmt, ByteOrder order) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < TEXT_LINES; i++) {
+            String line = String.format("C%2d %s", i + 1, (i < lines.length) ? lines[i] : "");
+            if (i == TEXT_LINES - 1) {
+                line = String.format("C%2d END TEXTUAL HEADER", i + 1);
+            }
+            text.append(String.format("%-" + TEXT_LINE_SIZE + "." + TEXT_LINE_SIZE + "s", line));
+        }
+        ByteBuffer bb = ByteBuffer.allocate(SIZE).order(order);
+        bb.put(text.toString().getBytes(TEXT_CHARSET), 0, TEXT_HEADER_SIZE);
+        bb.putShort(TRACES_PER_RECORD_OFFSET, (short) tracesPerRecord);
+        bb.putShort(SI_OFFSET, (short) sI);
+        bb.putShort(NS_OFFSET, (short) nSamples);
+        bb.putShort(NUM_FORMAT_OFFSET, (short) nFmt);
+        if (order == ByteOrder.LITTLE_ENDIAN) {
+            bb.putInt(BYTE_ORDER_OFFSET, BYTE_ORDER_CONSTANT);
+            bb.putShort(REVISION_OFFSET, (short) 0x0200);
+        } else {
+            bb.putShort(REVISION_OFFSET, (short) 0x0100);
+        }
+        return bb.array();
+    }
+
+    /**
+     * Encodes binary header fields into the file header, fields missing from the map are left as they are
+     * @param fileHeader 3600 bytes of the file header
+     * @param fields field values by field names (see binaryHeader)
+     * @param order byte order of the file
+     */
+    public static void putBinaryHeader(byte[] fileHeader, Map<String, ? extends Number> fields, ByteOrder order) {
+        ByteBuffer bb = ByteBuffer.wrap(fileHeader).order(order);
+        for (BinaryField field : BINARY_FIELDS) {
+            Number value = fields.get(field.name);
+            if (value == null) {
+                continue;
+            }
+            int offset = field.position - 1;
+            switch (field.size) {
+                case 2:
+                    bb.putShort(offset, value.shortValue());
+                    break;
+                case 4:
+                    bb.putInt(offset, value.intValue());
+                    break;
+                default:
+                    if (field.floating) {
+                        bb.putDouble(offset, value.doubleValue());
+                    } else {
+                        bb.putLong(offset, value.longValue());
+                    }
+            }
+        }
+    }
+
+    /**
+     * Detects byte order of the SEGY file
+     * @param fileHeader 3600 bytes of the file header
+     * @return byte order, big-endian unless the header tells otherwise
+     */
+    public static ByteOrder byteOrder(byte[] fileHeader) {
+        ByteBuffer bb = ByteBuffer.wrap(fileHeader);
+        int constant = bb.getInt(BYTE_ORDER_OFFSET);
+        if (constant == BYTE_ORDER_CONSTANT) {
+            return ByteOrder.BIG_ENDIAN;
+        }
+        if (constant == Integer.reverseBytes(BYTE_ORDER_CONSTANT)) {
+            return ByteOrder.LITTLE_ENDIAN;
+        }
+        short numFormat = bb.getShort(NUM_FORMAT_OFFSET);
+        short swapped = Short.reverseBytes(numFormat);
+        if ((numFormat < 1 || numFormat > MAX_NUM_FORMAT) && swapped >= 1 && swapped <= MAX_NUM_FORMAT) {
+            return ByteOrder.LITTLE_ENDIAN;
+        }
+        return ByteOrder.BIG_ENDIAN;
+    }
+
+    /**
+     * Decodes the textual header: EBCDIC (or ASCII, if the header starts with an ASCII 'C'),
+     * 40 lines of 80 characters with the trailing blanks removed
+     * @param fileHeader at least 3200 bytes of the file header
+     * @return lines separated by '\n'
+     */
+    public static String textHeader(byte[] fileHeader) {
+        Charset charset = (fileHeader[0] == 'C') ? StandardCharsets.US_ASCII : TEXT_CHARSET;
+        String text = new String(fileHeader, 0, TEXT_HEADER_SIZE, charset);
+        StringBuilder sb = new StringBuilder(TEXT_HEADER_SIZE);
+        for (int i = 0; i < TEXT_LINES; i++) {
+            String line = text.substring(i * TEXT_LINE_SIZE, (i + 1) * TEXT_LINE_SIZE).replace('\0', ' ');
+            int end = line.length();
+            while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+                end--;
+            }
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(line, 0, end);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes all binary header fields
+     * @param fileHeader 3600 bytes of the file header
+     * @param order byte order of the file
+     * @return field values by field names, in the order of the header; integers are Long, floating-point values are Double
+     */
+    public static Map<String, Number> binaryHeader(byte[] fileHeader, ByteOrder order) {
+        ByteBuffer bb = ByteBuffer.wrap(fileHeader).order(order);
+        Map<String, Number> fields = new LinkedHashMap<String, Number>();
+        for (BinaryField field : BINARY_FIELDS) {
+            int offset = field.position - 1;
+            switch (field.size) {
+                case 2:
+                    fields.put(field.name, (long) bb.getShort(offset));
+                    break;
+                case 4:
+                    fields.put(field.name, (long) bb.getInt(offset));
+                    break;
+                default:
+                    fields.put(field.name, field.floating ? (Number) bb.getDouble(offset) : (Number) bb.getLong(offset));
+            }
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Generator of synthetic SEGY files for local performance measurements
+ * Writes a valid SEGY file of the requested size: a regular 3D geometry (inlines x crosslines x offsets),
+ * given number of samples, number format code and byte order. Traces are a layered model: dipping
+ * reflectors convolved with a Ricker wavelet, plus low-level noise, so the output compresses like field data
+ * rather than like constants or pure noise. The output is deterministic for the same parameters.
+ * Usage: SEGYGenerator <output file> [size MB] [samples per trace] [format code] [big|little] [crosslines] [offsets]
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Synthetic SEGY generator
+ */
+public class SEGYGenerator {
+
+    // sample interval, microseconds
+    private static final int SAMPLE_INTERVAL = 2000;
+    // bin size and offset increment, meters
+    private static final int BIN_SIZE = 25;
+    private static final int OFFSET_STEP = 100;
+    // Ricker wavelet peak frequency, Hz
+    private static final double WAVELET_FREQUENCY = 25;
+    private static final int REFLECTORS = 20;
+    private static final double AMPLITUDE = 1000;
+    private static final double NOISE = 5;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int crosslines;
+    private final int offsets;
+    private final int nSamples;
+    private final int nFmt;
+    private final ByteOrder order;
+    private final int bytesPerSample;
+    private final double[] wavelet;
+    private final double[] reflectivity = new double[REFLECTORS];
+    private final double[] dips = new double[REFLECTORS * 2];
+
+    /**
+     * Creates generator
+     * @param crosslines number of crosslines per inline
+     * @param offsets number of offsets per bin (1 for post-stack data)
+     * @param nSamples number of samples per trace
+     * @param nFmt number format code
+     * @param order byte order of the file
+     * @throws IllegalArgumentException
+     */
+    public SEGYGenerator(int crosslines, int offsets, int nSamples, int nFmt, ByteOrder order) throws IllegalArgumentException {
+        if (crosslines <= 0 || offsets <= 0 || nSamples <= 0 || nSamples > 0xFFFF) {
+            throw new IllegalArgumentException("Not supported geometry: " + crosslines + " crosslines, "
+                    + offsets + " offsets, " + nSamples + " samples");
+        }
+        this.crosslines = crosslines;
+        this.offsets = offsets;
+        this.nSamples = nSamples;
+        this.nFmt = nFmt;
+        this.order = order;
+        this.bytesPerSample = NumFormatUtil.numBytesByFormat((short) nFmt);
+        // fails fast on formats which cannot be written
+        NumFormatUtil.writeTo(nFmt, 0, ByteBuffer.allocate(bytesPerSample));
+
+        double dt = SAMPLE_INTERVAL / 1e6;
+        int half = (int) Math.ceil(1.5 / (WAVELET_FREQUENCY * dt));
+        wavelet = new double[2 * half + 1];
+        for (int i = -half; i <= half; i++) {
+            double a = Math.pow(Math.PI * WAVELET_FREQUENCY * i * dt, 2);
+            wavelet[i + half] = (1 - 2 * a) * Math.exp(-a);
+        }
+        Random random = new Random(42);
+        for (int k = 0; k < REFLECTORS; k++) {
+            reflectivity[k] = random.nextGaussian() * 0.3;
+            dips[2 * k] = random.nextDouble() - 0.5;
+            dips[2 * k + 1] = random.nextDouble() - 0.5;
+        }
+    }
+
+    /**
+     * Returns size of one trace in bytes
+     * @return
+     */
+    public int getTraceSize() {
+        return SEGYInputFormat.TRACE_HEADER_SIZE + nSamples * bytesPerSample;
+    }
+
+    /**
+     * Returns number of inlines for the file of (at least) the given size
+     * @param sizeBytes requested file size
+     * @return
+     */
+    public int inlinesForSize(long sizeBytes) {
+        long inlineSize = (long) crosslines * offsets * getTraceSize();
+        return (int) Math.max(1, (sizeBytes - SEGYFileHeader.SIZE + inlineSize - 1) / inlineSize);
+    }
+
+    /**
+     * Writes SEGY file
+     * @param fs file system
+     * @param file output file
+     * @param inlines number of inlines
+     * @return number of written traces
+     * @throws IOException
+     */
+    public long generate(FileSystem fs, Path file, int inlines) throws IOException {
+        String[] lines = {
+                "Synthetic SEGY written by SEGYGenerator",
+                String.format("Inlines %d, crosslines %d, offsets %d", inlines, crosslines, offsets),
+                String.format("Samples %d, sample interval %d us, format code %d, %s",
+                        nSamples, SAMPLE_INTERVAL, nFmt, order),
+        };
+        byte[] trace = new byte[getTraceSize()];
+        ByteBuffer samplesBuffer = ByteBuffer.wrap(trace).order(order);
+        double[] samples = new double[nSamples];
+        TraceHeaderWritable header = new TraceHeaderWritable();
+        Random noise = new Random(7);
+        long traceID = 0;
+        try (OutputStream out = new BufferedOutputStream(fs.create(file, true), BUFFER_SIZE)) {
+            out.write(SEGYFileHeader.build(lines, crosslines * offsets, SAMPLE_INTERVAL, nSamples, nFmt, order));
+            for (int il = 1; il <= inlines; il++) {
+                for (int xl = 1; xl <= crosslines; xl++) {
+                    synthesize(il, xl, noise, samples);
+                    for (int off = 0; off < offsets; off++) {
+                        traceID++;
+                        header.setField("traceID", (int) traceID);
+                        header.setField("fieldRecordNumberID", il);
+                        header.setField("cdpID", (il - 1) * crosslines + xl);
+                        header.setField("distSRG", off * OFFSET_STEP);
+                        header.setField("srcX", xl * BIN_SIZE);
+                        header.setField("srcY", il * BIN_SIZE);
+                        header.setField("sI", SAMPLE_INTERVAL);
+                        header.setField("ilineID", il);
+                        header.setField("xlineID", xl);
+                        header.setNSamples(nSamples);
+                        header.toBytes(trace, order);
+                        samplesBuffer.position(SEGYInputFormat.TRACE_HEADER_SIZE);
+                        for (int i = 0; i < nSamples; i++) {
+                            NumFormatUtil.writeTo(nFmt, samples[i], samplesBuffer);
+                        }
+                        out.write(trace);
+                    }
+                }
+            }
+        }
+        return traceID;
+    }
+
+    /**
+     * Builds samples of the bin: dipping reflectors convolved with the wavelet, plus noise
+     */
+    private void synthesize(int il, int xl, Random noise, double[] samples) {
+        for (int i = 0; i < nSamples; i++) {
+            samples[i] = NOISE * (2 * noise.nextDouble() - 1);
+        }
+        int half = wavelet.length / 2;
+        for (int k = 0; k < REFLECTORS; k++) {
+            int t = (int) ((k + 1) * (double) nSamples / (REFLECTORS + 1) + dips[2 * k] * il + dips[2 * k + 1] * xl);
+            double a = AMPLITUDE * reflectivity[k];
+            for (int j = Math.max(0, t - half); j < Math.min(nSamples, t + half + 1); j++) {
+                samples[j] += a * wavelet[j - t + half];
+            }
+        }
+    }
+
+    /**
+     * Main entry point to generate a synthetic SEGY file
+     * @param args: args[0] - output file, args[1] - size in MB (1024), args[2] - samples per trace (1500),
+     *            args[3] - format code (5), args[4] - byte order big|little (big), args[5] - crosslines (500),
+     *            args[6] - offsets per bin (1)
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SEGYGenerator <output file> [size MB] [samples per trace] [format code] "
+                    + "[big|little] [crosslines] [offsets]");
+            System.exit(2);
+        }
+        long sizeMb = (args.length > 1) ? Long.parseLong(args[1]) : 1024;
+        int nSamples = (args.length > 2) ? Integer.parseInt(args[2]) : 1500;
+        int nFmt = (args.length > 3) ? Integer.parseInt(args[3]) : 5;
+        ByteOrder order = (args.length > 4 && "little".equals(args[4])) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        int crosslines = (args.length > 5) ? Integer.parseInt(args[5]) : 500;
+        int offsets = (args.length > 6) ? Integer.parseInt(args[6]) : 1;
+
+        SEGYGenerator generator = new SEGYGenerator(crosslines, offsets, nSamples, nFmt, order);
+        Path file = new Path(args[0]);
+        FileSystem fs = file.getFileSystem(new Configuration());
+        int inlines = generator.inlinesForSize(sizeMb * 1024 * 1024);
+        long start = System.nanoTime();
+        long traces = generator.generate(fs, file, inlines);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%s: %d inlines x %d crosslines x %d offsets, %d traces, %d bytes, %.1f s",
+                file, inlines, crosslines, offsets, traces, fs.getFileStatus(file).getLen(), seconds));
+    }
+}
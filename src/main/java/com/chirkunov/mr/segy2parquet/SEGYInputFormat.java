@@ -5,22 +5,37 @@
 package com.chirkunov.mr.segy2parquet;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.nio.ByteBuffer;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * FileInputFormat implementation for SEGY
  */
 public class SEGYInputFormat extends FileInputFormat<TraceHeaderWritable, TraceWritable> {
 
+	private static final Logger LOG = LoggerFactory.getLogger(SEGYInputFormat.class);
+
 	// segy (rev1) header size
 	private static final int FILE_HEADER_SIZE = 3600;
 
@@ -44,6 +59,44 @@ public class SEGYInputFormat extends FileInputFormat<TraceHeaderWritable, TraceW
 	public List<InputSplit> getSplits(JobContext job) throws IOException {
 		List<InputSplit> splits = new ArrayList<InputSplit>();
 		List<FileStatus> files = listStatus(job);
+		boolean variableLength = job.getConfiguration().getBoolean(TRACE_VARIABLE_LENGTH_SETTING, false);
+		CompressionCodecFactory codecs = new CompressionCodecFactory(job.getConfiguration());
+		// file header of every file is read once, the splits of the file carry its trace layout
+		Map<Path, byte[]> fileHeaders = new HashMap<Path, byte[]>();
+		Map<Path, Future<TraceIndex>> indexes = new HashMap<Path, Future<TraceIndex>>();
+		Map<Path, Future<CompressedFrameIndex>> frameIndexes = new HashMap<Path, Future<CompressedFrameIndex>>();
+		// trace boundaries of variable-length files and frames of compressed files are unknown
+		// until the files are scanned, so index all files in parallel
+		ExecutorService indexPool = Executors.newFixedThreadPool(Math.max(1, Math.min(files.size(),
+				job.getConfiguration().getInt(TRACE_INDEX_THREADS_SETTING, DEFAULT_TRACE_INDEX_THREADS))));
+		final long checkpointSpacing = job.getConfiguration().getLong(GZIP_CHECKPOINT_SPACING_SETTING,
+				DEFAULT_GZIP_CHECKPOINT_SPACING);
+		for (final FileStatus file : files) {
+			if (file.getLen() == 0) {
+				continue;
+			}
+			final FileSystem fs = file.getPath().getFileSystem(job.getConfiguration());
+			final CompressionCodec codec = codecs.getCodec(file.getPath());
+			if (codec == null && file.getLen() <= FILE_HEADER_SIZE) {
+				// no traces behind the file header (or not even a full file header)
+				LOG.warn("No traces in " + file.getPath() + ", " + file.getLen() + " bytes");
+				continue;
+			}
+			if (codec != null && variableLength) {
+				throw new IllegalArgumentException("Not supported variable-length traces in compressed SEGY: " + file.getPath());
+			}
+			byte[] fileHeader = readFileHeader(file.getPath(), job, codec);
+			fileHeaders.put(file.getPath(), fileHeader);
+			if (codec != null) {
+				frameIndexes.put(file.getPath(), indexPool.submit(() -> CompressedFrameIndex.loadOrBuild(fs, file, checkpointSpacing)));
+			} else if (variableLength && file.getLen() > FILE_HEADER_SIZE) {
+				final int bytesPerSample = NumFormatUtil.numBytesByFormat(getNumFormat(fileHeader));
+				final ByteOrder byteOrder = SEGYFileHeader.byteOrder(fileHeader);
+				indexes.put(file.getPath(), indexPool.submit(() -> TraceIndex.loadOrBuild(fs, file, FILE_HEADER_SIZE, bytesPerSample, byteOrder)));
+			}
+		}
+		// already submitted indexing tasks keep running
+		indexPool.shutdown();
 		for (FileStatus file : files) {
 			Path path = file.getPath();
 
@@ -56,94 +109,268 @@ public class SEGYInputFormat extends FileInputFormat<TraceHeaderWritable, TraceW
 					FileSystem fs = path.getFileSystem(job.getConfiguration());
 					blkLocations = fs.getFileBlockLocations(file, 0, length);
 				}
-				if (isSplitable(job, path)) {
-					long splitSize = adjustSplitLength(file.getPath(), job);
+				byte[] fileHeader = fileHeaders.get(path);
+				if (fileHeader == null) {
+					continue;
+				}
+				long splitSize = adjustSplitLength(fileHeader, job);
+				if (frameIndexes.containsKey(path)) {
+					CompressedFrameIndex index = awaitIndex(frameIndexes.get(path));
+					addCompressedSplits(splits, path, index, isSplitable(job, path) ? splitSize : Long.MAX_VALUE,
+							fileHeader, blkLocations, job);
+				} else if (variableLength && indexes.containsKey(path)) {
+					TraceIndex index = awaitIndex(indexes.get(path));
+					addIndexedSplits(splits, path, index, isSplitable(job, path) ? splitSize : Long.MAX_VALUE,
+							fileHeader, blkLocations);
+				} else if (isSplitable(job, path)) {
 					long bytesRemaining = length - FILE_HEADER_SIZE;
 					while (((double) bytesRemaining) / splitSize > 1) {
 						int blkIndex = getBlockIndex(blkLocations, length - bytesRemaining);
-						System.out.println(length - bytesRemaining);
 						splits.add(makeSplit(path, length - bytesRemaining, splitSize,
 								blkLocations[blkIndex].getHosts(),
-								blkLocations[blkIndex].getCachedHosts()));
+								blkLocations[blkIndex].getCachedHosts(), fileHeader));
 						bytesRemaining -= splitSize;
 					}
 					if (bytesRemaining != 0) {
 						int blkIndex = getBlockIndex(blkLocations, length - bytesRemaining);
 						splits.add(makeSplit(path, length - bytesRemaining, bytesRemaining,
 								blkLocations[blkIndex].getHosts(),
-								blkLocations[blkIndex].getCachedHosts()));
+								blkLocations[blkIndex].getCachedHosts(), fileHeader));
 					}
 				} else {
 					splits.add(makeSplit(path, FILE_HEADER_SIZE, length - FILE_HEADER_SIZE, blkLocations[0].getHosts(),
-							blkLocations[0].getCachedHosts()));
+							blkLocations[0].getCachedHosts(), fileHeader));
 				}
 			} else {
 				splits.add(makeSplit(path, 0, length, new String[0]));
 			}
 		}
 		job.getConfiguration().setLong(NUM_INPUT_FILES, files.size());
+		// file headers go to a side table rather than to the job configuration, which every task receives
+		String table = job.getConfiguration().get(SurveyHeaderTable.TABLE_SETTING);
+		if (table != null) {
+			SortedMap<String, byte[]> headers = new TreeMap<String, byte[]>();
+			for (Map.Entry<Path, byte[]> e : fileHeaders.entrySet()) {
+				headers.put(e.getKey().toString(), e.getValue());
+			}
+			SurveyHeaderTable.write(job.getConfiguration(), headers, new Path(table));
+		}
 
 		return splits;
 	}
+
+	/**
+	 * Waits for the trace (or frame) index built in background
+	 * @throws IOException
+	 */
+	private static <T> T awaitIndex(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while indexing traces", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Split SEGY-file with variable-length traces on trace boundaries taken from the trace index
+	 */
+	private void addIndexedSplits(List<InputSplit> splits, Path path, TraceIndex index, long splitSize,
+								  byte[] fileHeader, BlockLocation[] blkLocations) throws IOException {
+		int first = 0;
+		while (first < index.size()) {
+			long splitStart = index.offset(first);
+			int next = first + 1;
+			while (next < index.size() && index.offset(next) - splitStart < splitSize) {
+				next++;
+			}
+			long splitEnd = (next < index.size()) ? index.offset(next) : index.end();
+			int blkIndex = getBlockIndex(blkLocations, splitStart);
+			splits.add(makeSplit(path, splitStart, splitEnd - splitStart,
+					blkLocations[blkIndex].getHosts(),
+					blkLocations[blkIndex].getCachedHosts(), fileHeader));
+			first = next;
+		}
+	}
+
+	/**
+	 * Split compressed SEGY-file on trace boundaries next to the frame starts, so that every split starts
+	 * decompressing at its own frame and skips less than one trace of it
+	 */
+	private void addCompressedSplits(List<InputSplit> splits, Path path, CompressedFrameIndex index, long splitSize,
+									 byte[] fileHeader, BlockLocation[] blkLocations, JobContext job) throws IOException {
+		int traceSize = getTraceSize(fileHeader);
+		long dataEnd = FILE_HEADER_SIZE + (index.uncompressedLength() - FILE_HEADER_SIZE) / traceSize * traceSize;
+		long splitStart = FILE_HEADER_SIZE;
+		for (int frame = index.frameOf(splitStart) + 1; frame < index.size() && splitStart < dataEnd; frame++) {
+			// first trace which starts inside the frame
+			long boundary = FILE_HEADER_SIZE + Math.max(0,
+					(index.uncompressedOffset(frame) - FILE_HEADER_SIZE + traceSize - 1) / traceSize * traceSize);
+			if (boundary >= dataEnd) {
+				break;
+			}
+			if (boundary - splitStart >= splitSize) {
+				addCompressedSplit(splits, path, index, splitStart, boundary, fileHeader, blkLocations, job);
+				splitStart = boundary;
+			}
+		}
+		if (splitStart < dataEnd) {
+			addCompressedSplit(splits, path, index, splitStart, dataEnd, fileHeader, blkLocations, job);
+		}
+	}
+
+	/**
+	 * Adds split of the uncompressed range [start, end), which starts decompressing at the frame holding start;
+	 * a split which starts at a gzip checkpoint carries the checkpoint window
+	 */
+	private void addCompressedSplit(List<InputSplit> splits, Path path, CompressedFrameIndex index, long start, long end,
+									byte[] fileHeader, BlockLocation[] blkLocations, JobContext job) throws IOException {
+		int frame = index.frameOf(start);
+		int blkIndex = getBlockIndex(blkLocations, index.compressedOffset(frame));
+		byte[] window = index.isCheckpoint(frame)
+				? index.readWindow(path.getFileSystem(job.getConfiguration()), frame) : null;
+		splits.add(new CompressedTraceSplit(path, start, end - start, index.compressedOffset(frame), index.bitOffset(frame),
+				window, index.uncompressedOffset(frame), blkLocations[blkIndex].getHosts(),
+				blkLocations[blkIndex].getCachedHosts(), getNSamples(fileHeader), getNumFormat(fileHeader),
+				SEGYFileHeader.byteOrder(fileHeader), fileHeader));
+	}
+
+	/**
+	 * Makes split which carries the trace layout of its file
+	 */
+	private SEGYSplit makeSplit(Path path, long start, long length, String[] hosts, String[] inMemoryHosts, byte[] fileHeader) {
+		return new SEGYSplit(path, start, length, hosts, inMemoryHosts,
+				getNSamples(fileHeader), getNumFormat(fileHeader), SEGYFileHeader.byteOrder(fileHeader), fileHeader);
+	}
+
+	/**
+	 * Returns number of samples per trace from the binary header
+	 */
+	private static short getNSamples(byte[] fileHeader) {
+		return ByteBuffer.wrap(fileHeader).order(SEGYFileHeader.byteOrder(fileHeader)).getShort(TRACES_SAMPLES_OFFSET);
+	}
+
+	/**
+	 * Returns number format code from the binary header
+	 */
+	private static short getNumFormat(byte[] fileHeader) {
+		return ByteBuffer.wrap(fileHeader).order(SEGYFileHeader.byteOrder(fileHeader)).getShort(NUM_FORMAT_OFFSET);
+	}
+
+	/**
+	 * Returns size of the fixed-length trace in bytes, from the binary header
+	 */
+	private static int getTraceSize(byte[] fileHeader) {
+		return TRACE_HEADER_SIZE + getNSamples(fileHeader) * NumFormatUtil.numBytesByFormat(getNumFormat(fileHeader));
+	}
+
 	// number of samples per trace - offset
 	private static final int TRACES_SAMPLES_OFFSET = 3220;
-	private static final int TRACES_SAMPLES_SIZE = 2;
 
-	private static final ByteOrder BYTE_ORDER = ByteOrder.BIG_ENDIAN; // by default
 
 	// trace header size in bytes
 	public static final int TRACE_HEADER_SIZE = 240;
 	// SEGY number format code - offset
 	private static final int NUM_FORMAT_OFFSET = 3224;
-	private static final int NUM_FORMAT_SIZE = 2;
 	// partitions multiplier
 	private static final int PARTITIONS_MULTIPLIER = 10;
 	// traces per record - offset (not obligatory)
 	private static final int TRACES_PER_RECORD_OFFSET = 3212;
-	private static final int TRACES_PER_RECORD_SIZE = 2;
 	// default number of data traces per record
 	private static final short DEFAULT_TRACES_PER_RECORD = 2736;
+	// Trace layout settings below are defaults for plain FileSplits only:
+	// SEGYSplit carries the layout of its own file (binary header)
 	// Setting to store data samples number
 	public static final String TRACE_SAMPLES_SETTING = "com.chirkunov.mr.segy2parquet.TRACE_SAMPLES";
 	// size of one data sample in bytes
 	public static final String TRACE_BYTE_PER_SAMPLE_SETTING = "com.chirkunov.mr.segy2parquet.TRACE_BYTES_PER_SAMPLE";
 	// number format code
 	public static final String TRACE_NUM_FMT_SETTING = "com.chirkunov.mr.segy2parquet.TRACE_NUM_FMT_SETTING";
+	// Setting to read the number of samples from every trace header (bytes 115-116) instead of the binary header
+	public static final String TRACE_VARIABLE_LENGTH_SETTING = "com.chirkunov.mr.segy2parquet.TRACE_VARIABLE_LENGTH";
+	// Setting of the number of threads used to build trace indexes of variable-length SEGY files
+	public static final String TRACE_INDEX_THREADS_SETTING = "com.chirkunov.mr.segy2parquet.TRACE_INDEX_THREADS";
+	private static final int DEFAULT_TRACE_INDEX_THREADS = 4;
+	// byte order of the SEGY file (BIG_ENDIAN or LITTLE_ENDIAN)
+	public static final String TRACE_BYTE_ORDER_SETTING = "com.chirkunov.mr.segy2parquet.TRACE_BYTE_ORDER";
+	// Setting to override the split size in bytes (rounded to whole traces), e.g. to get more map tasks on small inputs
+	public static final String SPLIT_SIZE_SETTING = "com.chirkunov.mr.segy2parquet.SPLIT_SIZE";
+	// Setting of the uncompressed bytes between the checkpoints inside gzip members, i.e. the finest split of such files
+	public static final String GZIP_CHECKPOINT_SPACING_SETTING = "com.chirkunov.mr.segy2parquet.GZIP_CHECKPOINT_SPACING";
+	private static final long DEFAULT_GZIP_CHECKPOINT_SPACING = 32L * 1024 * 1024;
+	// Task-local settings of the input file of the map task and its file header (3600 bytes, base64), see setInputFile
+	public static final String INPUT_FILE_SETTING = "com.chirkunov.mr.segy2parquet.INPUT_FILE";
+	public static final String FILE_HEADER_SETTING = "com.chirkunov.mr.segy2parquet.FILE_HEADER";
+
 	/**
-	 * Compute a possible split length for the SEGY file, taking into account a trace size and a recommended minimal hdfs file size (>=64Mb)
-	*/
-	private int adjustSplitLength(Path file, JobContext job) throws IOException, IllegalArgumentException {
+	 * Returns byte order of the SEGY files, big-endian by default
+	 * @param conf job configuration
+	 * @return
+	 */
+	public static ByteOrder getByteOrder(Configuration conf) {
+		return ByteOrder.LITTLE_ENDIAN.toString().equals(conf.get(TRACE_BYTE_ORDER_SETTING))
+				? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+	}
+	/**
+	 * Keeps the input file of the map task and its file header, carried by the split, in the task configuration;
+	 * the output formats of the task put them into the footers of their files (see TraceGroupWriteSupport)
+	 * @param conf task configuration
+	 * @param split input split of the map task
+	 */
+	public static void setInputFile(Configuration conf, InputSplit split) {
+		if (split instanceof SEGYSplit && ((SEGYSplit) split).getFileHeader() != null) {
+			conf.set(INPUT_FILE_SETTING, ((SEGYSplit) split).getPath().toString());
+			conf.set(FILE_HEADER_SETTING, Base64.getEncoder().encodeToString(((SEGYSplit) split).getFileHeader()));
+		}
+	}
+
+	/**
+	 * Reads file header
+	 * Header of a compressed file is read from the decompressed stream
+	 */
+	private static byte[] readFileHeader(Path file, JobContext job, CompressionCodec codec) throws IOException {
 		FileSystem fs = file.getFileSystem(job.getConfiguration());
-		try {
+		byte[] fileHeader = new byte[FILE_HEADER_SIZE];
+		// close the stream only: the file system instance is cached and shared with index builders
+		try (FSDataInputStream stream = fs.open(file)) {
+			if (codec == null) {
+				stream.readFully(0, fileHeader);
+			} else {
+				Decompressor decompressor = CodecPool.getDecompressor(codec);
+				try (InputStream in = codec.createInputStream(stream, decompressor)) {
+					IOUtils.readFully(in, fileHeader, 0, FILE_HEADER_SIZE);
+				} finally {
+					CodecPool.returnDecompressor(decompressor);
+				}
+			}
+		}
+		return fileHeader;
+	}
 
-			FSDataInputStream stream = fs.open(file);
+	/**
+	 * Compute a possible split length for the SEGY file, taking into account a trace size and a recommended minimal hdfs file size (>=64Mb)
+	*/
+	private long adjustSplitLength(byte[] fileHeader, JobContext job) throws IllegalArgumentException {
+		ByteBuffer bb = ByteBuffer.wrap(fileHeader).order(SEGYFileHeader.byteOrder(fileHeader));
 
-			byte[] tracesPerRecordBytes = new byte[TRACES_PER_RECORD_SIZE];
-			stream.seek(TRACES_PER_RECORD_OFFSET);
-			stream.read(tracesPerRecordBytes, 0, TRACES_PER_RECORD_SIZE);
-			short tracesPerRecord = ByteBuffer.wrap(tracesPerRecordBytes).order(BYTE_ORDER).getShort();
-			if (tracesPerRecord == 0){
-				tracesPerRecord = DEFAULT_TRACES_PER_RECORD;
-			}
+		short tracesPerRecord = bb.getShort(TRACES_PER_RECORD_OFFSET);
+		if (tracesPerRecord == 0){
+			tracesPerRecord = DEFAULT_TRACES_PER_RECORD;
+		}
 
-			byte[] nSamplesBytes = new byte[TRACES_SAMPLES_SIZE];
-			stream.seek(TRACES_SAMPLES_OFFSET);
-			stream.read(nSamplesBytes, 0, TRACES_SAMPLES_SIZE);
-			short nSamples = ByteBuffer.wrap(nSamplesBytes).order(BYTE_ORDER).getShort();
-			job.getConfiguration().setInt(TRACE_SAMPLES_SETTING, nSamples);
-
-			byte[] numFormatBytes = new byte[NUM_FORMAT_SIZE];
-			stream.seek(NUM_FORMAT_OFFSET);
-			stream.read(numFormatBytes, 0, NUM_FORMAT_SIZE);
-			short numFormat = ByteBuffer.wrap(numFormatBytes).order(BYTE_ORDER).getShort();
-			int nBytes = NumFormatUtil.numBytesByFormat(numFormat);
-			job.getConfiguration().setInt(TRACE_BYTE_PER_SAMPLE_SETTING, nBytes);
-			job.getConfiguration().setInt(TRACE_NUM_FMT_SETTING, numFormat);
-
-			int traceNBytes = TRACE_HEADER_SIZE + nSamples * nBytes;
-			return traceNBytes * tracesPerRecord * PARTITIONS_MULTIPLIER;
-		} finally {
-			fs.close();
+		int traceNBytes = getTraceSize(fileHeader);
+		long splitSize = job.getConfiguration().getLong(SPLIT_SIZE_SETTING, 0);
+		if (splitSize > 0) {
+			return Math.max(1, splitSize / traceNBytes) * traceNBytes;
 		}
+		return (long) traceNBytes * tracesPerRecord * PARTITIONS_MULTIPLIER;
 	}
 }
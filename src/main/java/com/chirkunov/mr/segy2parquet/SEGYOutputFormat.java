@@ -0,0 +1,94 @@
+/**
+ * Custom FileOutputFormat implementation to write SEGY traces within Hadoop
+ * Every task writes a headerless part file with its traces (240-byte trace header + encoded samples),
+ * the trace header is the raw one of the source trace (traceHeader column) with the header columns written over it;
+ * without the raw header, the fields which have no column are zero.
+ * ExportJob splices the parts behind a regenerated 3600-byte file header afterwards.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * FileOutputFormat implementation for SEGY traces
+ */
+public class SEGYOutputFormat<K> extends FileOutputFormat<K, TraceWritable> {
+
+	// extension of the part files
+	public static final String PART_EXTENSION = ".traces";
+	// default number format code of the exported samples (4-byte IEEE floating point)
+	public static final int DEFAULT_NUM_FMT = 5;
+
+	/**
+	 * Returns TraceRecordWriter for the task part file
+	 * @throws IOException
+	 */
+	@Override
+	public RecordWriter<K, TraceWritable> getRecordWriter(TaskAttemptContext context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		int nFmt = conf.getInt(SEGYInputFormat.TRACE_NUM_FMT_SETTING, DEFAULT_NUM_FMT);
+		Path file = getDefaultWorkFile(context, PART_EXTENSION);
+		FileSystem fs = file.getFileSystem(conf);
+		return new TraceRecordWriter<K>(fs.create(file, false), nFmt);
+	}
+
+	/**
+	 * Writes traces, encoding samples with the configured number format
+	 */
+	private static class TraceRecordWriter<K> extends RecordWriter<K, TraceWritable> {
+
+		private final DataOutputStream out;
+		private final int nFmt;
+		private final int bytesPerSample;
+		private final byte[] traceHeaderBytes = new byte[SEGYInputFormat.TRACE_HEADER_SIZE];
+		private ByteBuffer samplesBuffer = ByteBuffer.allocate(0);
+
+		TraceRecordWriter(FSDataOutputStream out, int nFmt) {
+			this.out = out;
+			this.nFmt = nFmt;
+			this.bytesPerSample = NumFormatUtil.numBytesByFormat((short) nFmt);
+		}
+
+		@Override
+		public void write(K key, TraceWritable value) throws IOException {
+			int nSamples = value.getTraceLength();
+			TraceHeaderWritable header = value.getTraceHeader();
+			header.setNSamples(nSamples);
+			// the raw header keeps the fields which have no column, the columns override it
+			if (header.hasRawHeader()) {
+				System.arraycopy(header.getRawHeader(), 0, traceHeaderBytes, 0, traceHeaderBytes.length);
+			} else {
+				Arrays.fill(traceHeaderBytes, (byte) 0);
+			}
+			header.toBytes(traceHeaderBytes);
+			out.write(traceHeaderBytes);
+
+			int size = nSamples * bytesPerSample;
+			if (samplesBuffer.capacity() < size) {
+				samplesBuffer = ByteBuffer.allocate(size);
+			}
+			samplesBuffer.clear();
+			double[] samples = value.getSamples();
+			for (int i = 0; i < nSamples; i++) {
+				NumFormatUtil.writeTo(nFmt, samples[i], samplesBuffer);
+			}
+			out.write(samplesBuffer.array(), 0, size);
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Input split of a SEGY file with the trace layout of that file
+ * Number of samples, number format and byte order come from the binary header of the split's own file,
+ * so inputs mixing files of different layouts are decoded correctly.
+ * The split also carries the whole file header, for the footers of the map outputs (see TraceGroupWriteSupport).
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * FileSplit with the trace layout of its SEGY file
+ */
+public class SEGYSplit extends FileSplit {
+
+	private int nSamples;
+	private short numFormat;
+	private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+	private byte[] fileHeader;
+
+	public SEGYSplit() {
+	}
+
+	/**
+	 * Creates split
+	 * @param file SEGY file
+	 * @param start offset of the first trace
+	 * @param length length of the traces
+	 * @param hosts hosts of the first block
+	 * @param inMemoryHosts hosts with the first block in memory
+	 * @param nSamples number of samples per trace (binary header)
+	 * @param numFormat number format code of the samples
+	 * @param byteOrder byte order of the file
+	 * @param fileHeader file header (3600 bytes), or null if unknown
+	 */
+	public SEGYSplit(Path file, long start, long length, String[] hosts, String[] inMemoryHosts,
+					 int nSamples, short numFormat, ByteOrder byteOrder, byte[] fileHeader) {
+		super(file, start, length, hosts, inMemoryHosts);
+		this.nSamples = nSamples;
+		this.numFormat = numFormat;
+		this.byteOrder = byteOrder;
+		this.fileHeader = fileHeader;
+	}
+
+	/**
+	 * Returns number of samples per trace from the binary header
+	 * @return
+	 */
+	public int getNSamples() {
+		return nSamples;
+	}
+
+	/**
+	 * Returns number format code of the samples
+	 * @return
+	 */
+	public short getNumFormat() {
+		return numFormat;
+	}
+
+	/**
+	 * Returns byte order of the file
+	 * @return
+	 */
+	public ByteOrder getByteOrder() {
+		return byteOrder;
+	}
+
+	/**
+	 * Returns file header of the split's file
+	 * @return 3600 bytes, or null if unknown
+	 */
+	public byte[] getFileHeader() {
+		return fileHeader;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(nSamples);
+		out.writeShort(numFormat);
+		out.writeBoolean(ByteOrder.LITTLE_ENDIAN.equals(byteOrder));
+		out.writeInt(fileHeader == null ? -1 : fileHeader.length);
+		if (fileHeader != null) {
+			out.write(fileHeader);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		super.readFields(in);
+		nSamples = in.readInt();
+		numFormat = in.readShort();
+		byteOrder = in.readBoolean() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		int headerLength = in.readInt();
+		fileHeader = null;
+		if (headerLength >= 0) {
+			fileHeader = new byte[headerLength];
+			in.readFully(fileHeader);
+		}
+	}
+}
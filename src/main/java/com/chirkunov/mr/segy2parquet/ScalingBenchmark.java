@@ -0,0 +1,185 @@
+/**
+ * End-to-end scaling benchmark of ConverterJob on the local job runner
+ * It generates a synthetic SEGY file (SEGYGenerator), then converts it with 1, 2, 4 ... N parallel map slots
+ * (mapreduce.local.map.tasks.maximum) over the same splits, and reports throughput (traces/s, MB/s of SEGY input),
+ * speedup, peak heap (sum of the heap pool peaks), GC time and Parquet output size per configuration.
+ * Map tasks of the local runner are threads of this JVM, so heap and GC figures cover the whole job.
+ * If a baseline file is given, throughput is compared with it (and the run fails on a regression beyond
+ * the tolerance); a missing baseline file is created from the current results.
+ * Usage: ScalingBenchmark [size MB] [max map slots] [samples per trace] [format code] [big|little] [baseline file]
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Scaling benchmark of the conversion job
+ */
+public class ScalingBenchmark {
+
+    // Setting of the parallel map tasks number of the local job runner (standard Hadoop setting)
+    private static final String CONF_LOCAL_MAPS = "mapreduce.local.map.tasks.maximum";
+    private static final String CONF_FRAMEWORK = "mapreduce.framework.name";
+    // splits per map slot of the largest configuration
+    private static final int SPLITS_PER_SLOT = 4;
+    // allowed throughput drop against the baseline
+    private static final double REGRESSION_TOLERANCE = 0.10;
+    private static final double MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        long sizeMb = (args.length > 0) ? Long.parseLong(args[0]) : 512;
+        int maxSlots = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int nSamples = (args.length > 2) ? Integer.parseInt(args[2]) : 1500;
+        int nFmt = (args.length > 3) ? Integer.parseInt(args[3]) : 5;
+        ByteOrder order = (args.length > 4 && "little".equals(args[4])) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        File baseline = (args.length > 5) ? new File(args[5]) : null;
+
+        File dir = Files.createTempDirectory("scaling-bench").toFile();
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        // a regression exits after the temporary data is deleted
+        boolean regressed = false;
+        try {
+            SEGYGenerator generator = new SEGYGenerator(500, 1, nSamples, nFmt, order);
+            Path input = new Path(new File(dir, "input/synthetic.sgy").toURI());
+            long traces = generator.generate(fs, input, generator.inlinesForSize(sizeMb * 1024 * 1024));
+            long inputBytes = fs.getFileStatus(input).getLen();
+            // all configurations read the same splits
+            long splitSize = Math.max(1, inputBytes / ((long) maxSlots * SPLITS_PER_SLOT));
+
+            List<Integer> slots = new ArrayList<Integer>();
+            for (int s = 1; s < maxSlots; s *= 2) {
+                slots.add(s);
+            }
+            slots.add(maxSlots);
+
+            // warm-up run, so that the first measured configuration is not penalized by JIT compilation
+            run(fs, input, new Path(new File(dir, "warmup").toURI()), maxSlots, splitSize);
+
+            System.out.println(String.format("input=%d traces, %.1f MB, samples=%d, format=%d, %s, splits of %.1f MB",
+                    traces, inputBytes / MB, nSamples, nFmt, order, splitSize / MB));
+            System.out.println(String.format("%6s %9s %12s %9s %8s %12s %9s %11s",
+                    "slots", "seconds", "traces/s", "MB/s", "speedup", "peakHeapMB", "gcMs", "outputMB"));
+            Map<Integer, Double> throughput = new TreeMap<Integer, Double>();
+            double base = 0;
+            for (int s : slots) {
+                Result r = run(fs, input, new Path(new File(dir, "out-" + s).toURI()), s, splitSize);
+                double seconds = r.nanos / 1e9;
+                double tracesPerSecond = traces / seconds;
+                if (base == 0) {
+                    base = seconds;
+                }
+                throughput.put(s, tracesPerSecond);
+                System.out.println(String.format("%6d %9.2f %12.0f %9.1f %8.2f %12.1f %9d %11.1f",
+                        s, seconds, tracesPerSecond, inputBytes / MB / seconds, base / seconds,
+                        r.peakHeap / MB, r.gcMillis, r.outputBytes / MB));
+            }
+            regressed = baseline != null && !compare(baseline, throughput);
+        } finally {
+            fs.delete(new Path(dir.toURI()), true);
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Job run summary
+     */
+    private static class Result {
+        long nanos;
+        long peakHeap;
+        long gcMillis;
+        long outputBytes;
+    }
+
+    /**
+     * Runs ConverterJob with the given number of parallel map slots
+     */
+    private static Result run(FileSystem fs, Path input, Path output, int slots, long splitSize) throws Exception {
+        Configuration conf = new Configuration();
+        conf.set(CONF_FRAMEWORK, "local");
+        conf.setInt(CONF_LOCAL_MAPS, slots);
+        conf.setLong(SEGYInputFormat.SPLIT_SIZE_SETTING, splitSize);
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long gcBefore = gcMillis();
+        long start = System.nanoTime();
+        ConverterJob job = new ConverterJob();
+        int res = ToolRunner.run(conf, job, new String[]{input.toString(), output.toString()});
+        Result r = new Result();
+        r.nanos = System.nanoTime() - start;
+        if (res != 0) {
+            throw new IllegalStateException("Conversion failed with " + slots + " map slots");
+        }
+        r.gcMillis = gcMillis() - gcBefore;
+        for (MemoryPoolMXBean pool : heapPools) {
+            r.peakHeap += pool.getPeakUsage().getUsed();
+        }
+        // ConverterJob writes into a unique folder next to the requested one, sibling folders are left out
+        r.outputBytes = fs.getContentSummary(job.getOutputPath()).getLength();
+        return r;
+    }
+
+    private static long gcMillis() {
+        long res = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            res += Math.max(0, gc.getCollectionTime());
+        }
+        return res;
+    }
+
+    /**
+     * Compares throughput with the baseline file ("slots traces/s" lines), creates the file if it is missing
+     * @return False if throughput dropped beyond the tolerance
+     */
+    private static boolean compare(File baseline, Map<Integer, Double> throughput) throws Exception {
+        if (!baseline.exists()) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Integer, Double> e : throughput.entrySet()) {
+                sb.append(e.getKey()).append(' ').append(String.format("%.0f", e.getValue())).append('\n');
+            }
+            Files.write(baseline.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.println("baseline written to " + baseline);
+            return true;
+        }
+        boolean ok = true;
+        for (String line : Files.readAllLines(baseline.toPath(), StandardCharsets.UTF_8)) {
+            String[] items = line.trim().split("\\s+");
+            if (items.length != 2 || !throughput.containsKey(Integer.parseInt(items[0]))) {
+                continue;
+            }
+            int s = Integer.parseInt(items[0]);
+            double expected = Double.parseDouble(items[1]);
+            double change = throughput.get(s) / expected - 1;
+            boolean regression = change < -REGRESSION_TOLERANCE;
+            ok &= !regression;
+            System.out.println(String.format("slots=%d: %.0f traces/s vs baseline %.0f (%+.1f%%)%s",
+                    s, throughput.get(s), expected, 100 * change, regression ? " REGRESSION" : ""));
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Per-survey header table: one Parquet row per source SEGY file with its decoded textual header,
+ * all binary header fields and the raw file header. It is staged in the output folder while the splits of the submitted
+ * job are planned, the reduce tasks read it for the footers of their outputs, and ConverterJob publishes it next to
+ * the converted data once the job succeeds (a failed job leaves no table). Catalog tools read it (or the footer
+ * metadata of any data file) instead of re-opening the SEGY files.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroup;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Types;
+
+/**
+ * Writer and reader of the survey header table
+ */
+public class SurveyHeaderTable {
+
+    // location of the published table inside the job output folder
+    public static final String TABLE_PATH = "_survey_headers/headers.parquet";
+    // location of the staged table inside the job output folder
+    public static final String STAGING_PATH = "_survey_headers/_staging/headers.parquet";
+    // Setting of the table location: SEGYInputFormat writes the table there while planning the splits, if it is set
+    public static final String TABLE_SETTING = "com.chirkunov.mr.segy2parquet.SURVEY_HEADER_TABLE";
+
+    /**
+     * Returns schema of the table: file, byteOrder, textualHeader, a column per binary header field
+     * (int64, or double for the floating-point rev2 fields) and fileHeader (3600 bytes)
+     * @return
+     */
+    public static MessageType getSchema() {
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        builder.required(PrimitiveType.PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("file");
+        builder.required(PrimitiveType.PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("byteOrder");
+        builder.required(PrimitiveType.PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("textualHeader");
+        // field types do not depend on the header content
+        for (Map.Entry<String, Number> field : SEGYFileHeader.binaryHeader(new byte[SEGYFileHeader.SIZE], ByteOrder.BIG_ENDIAN).entrySet()) {
+            builder.required(field.getValue() instanceof Double ? PrimitiveType.PrimitiveTypeName.DOUBLE
+                    : PrimitiveType.PrimitiveTypeName.INT64).named(field.getKey());
+        }
+        builder.required(PrimitiveType.PrimitiveTypeName.BINARY).named("fileHeader");
+        return builder.named("SurveyHeader");
+    }
+
+    /**
+     * Writes the table of the file headers
+     * @param conf job configuration
+     * @param headers 3600 bytes of the file header by file path
+     * @param table table file
+     * @return number of rows, 0 if there are no headers (no table is written then)
+     * @throws IOException
+     */
+    public static int write(Configuration conf, Map<String, byte[]> headers, Path table) throws IOException {
+        if (headers.isEmpty()) {
+            return 0;
+        }
+        MessageType schema = getSchema();
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(table)
+                .withConf(conf)
+                .withType(schema)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .withCompressionCodec(CompressionCodecName.SNAPPY)
+                .build()) {
+            for (Map.Entry<String, byte[]> e : headers.entrySet()) {
+                ByteOrder order = SEGYFileHeader.byteOrder(e.getValue());
+                Group row = new SimpleGroup(schema);
+                row.add("file", e.getKey());
+                row.add("byteOrder", order.toString());
+                row.add("textualHeader", SEGYFileHeader.textHeader(e.getValue()));
+                for (Map.Entry<String, Number> field : SEGYFileHeader.binaryHeader(e.getValue(), order).entrySet()) {
+                    if (field.getValue() instanceof Double) {
+                        row.add(field.getKey(), field.getValue().doubleValue());
+                    } else {
+                        row.add(field.getKey(), field.getValue().longValue());
+                    }
+                }
+                row.add("fileHeader", Binary.fromConstantByteArray(e.getValue()));
+                writer.write(row);
+            }
+        }
+        return headers.size();
+    }
+
+    /**
+     * Publishes the staged table of a succeeded job to TABLE_PATH, drops it if the job failed
+     * @param conf job configuration
+     * @param output job output folder
+     * @param success True if the job succeeded
+     * @throws IOException
+     */
+    public static void publish(Configuration conf, Path output, boolean success) throws IOException {
+        Path staged = new Path(output, STAGING_PATH);
+        Path table = new Path(output, TABLE_PATH);
+        FileSystem fs = output.getFileSystem(conf);
+        if (success && fs.exists(staged) && !fs.rename(staged, table)) {
+            throw new IOException("Unable to move " + staged + " to " + table);
+        }
+        fs.delete(success ? staged.getParent() : table.getParent(), true);
+    }
+
+    /**
+     * Reads the file headers from the table of the job (see TABLE_SETTING)
+     * @param conf job configuration
+     * @return 3600 bytes of the file header by file path, sorted by path; empty if the job has no table
+     * @throws IOException
+     */
+    public static SortedMap<String, byte[]> read(Configuration conf) throws IOException {
+        SortedMap<String, byte[]> headers = new TreeMap<String, byte[]>();
+        if (conf.get(TABLE_SETTING) == null) {
+            return headers;
+        }
+        Path table = new Path(conf.get(TABLE_SETTING));
+        if (!table.getFileSystem(conf).exists(table)) {
+            return headers;
+        }
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), table).withConf(conf).build()) {
+            for (Group row = reader.read(); row != null; row = reader.read()) {
+                headers.put(row.getString("file", 0), row.getBinary("fileHeader", 0).getBytes());
+            }
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Read-only Parquet row of the trace layout, backed by the decoded trace
+ * GroupWriter takes the values straight from the trace header, the reusable samples buffer of TraceWritable
+ * and the reusable buffer of TraceQuantizer, so no per-sample value objects (as in SimpleGroup) are built
+ * on the write path. One instance is reused for all rows; a row is valid until the trace is overwritten,
+ * which is enough for the writers which consume the row in the write call.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import static com.chirkunov.mr.segy2parquet.TraceGroupWriteSupport.*;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.NanoTime;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.GroupType;
+
+/**
+ * Parquet row view of a trace
+ */
+public class TraceGroup extends Group {
+
+    private static final GroupType TRACE_SCHEMA = TraceGroupWriteSupport.getSchema();
+
+    private TraceHeaderWritable header;
+    private TraceWritable trace;
+    private TraceQuantizer quantizer;
+    private boolean quantized;
+
+    /**
+     * Points the row to the trace, quantizes its samples if a quantizer is given
+     * @param thw trace header
+     * @param tw trace
+     * @param quantizer quantizer of trace data samples, null to store samples as doubles
+     * @return this row
+     */
+    public TraceGroup set(TraceHeaderWritable thw, TraceWritable tw, TraceQuantizer quantizer) {
+        this.header = thw;
+        this.trace = tw;
+        this.quantizer = quantizer;
+        this.quantized = quantizer != null && quantizer.quantize(tw.getSamples(), tw.getTraceLength(),
+                tw.getTraceMin(), tw.getTraceMax(), tw.getNanCount());
+        return this;
+    }
+
+    @Override
+    public GroupType getType() {
+        return TRACE_SCHEMA;
+    }
+
+    @Override
+    public int getFieldRepetitionCount(int fieldIndex) {
+        switch (fieldIndex) {
+            case FIELD_TRACE_DATA:
+                // lossy samples go to traceDataQ, traceData stays empty
+                return quantized ? 0 : trace.getTraceLength();
+            case FIELD_QUANT_BITS:
+            case FIELD_QUANT_SCALE:
+            case FIELD_QUANT_OFFSET:
+            case FIELD_TRACE_DATA_Q:
+                return quantized ? 1 : 0;
+            case FIELD_TRACE_HEADER:
+                return header.hasRawHeader() ? 1 : 0;
+            default:
+                return 1;
+        }
+    }
+
+    @Override
+    public void writeValue(int field, int index, RecordConsumer recordConsumer) {
+        switch (field) {
+            case FIELD_TRACE_DATA:
+                recordConsumer.addDouble(trace.getSamples()[index]);
+                break;
+            case FIELD_DEAD:
+                recordConsumer.addBoolean(trace.isDead());
+                break;
+            case FIELD_TRACE_DATA_Q:
+            case FIELD_TRACE_HEADER:
+                recordConsumer.addBinary(getBinary(field, index));
+                break;
+            case FIELD_TRACE_MIN:
+            case FIELD_TRACE_MAX:
+            case FIELD_TRACE_MEAN:
+            case FIELD_TRACE_RMS:
+            case FIELD_QUANT_SCALE:
+            case FIELD_QUANT_OFFSET:
+                recordConsumer.addDouble(getDouble(field, index));
+                break;
+            default:
+                recordConsumer.addInteger(getInteger(field, index));
+        }
+    }
+
+    @Override
+    public int getInteger(int fieldIndex, int index) {
+        switch (fieldIndex) {
+            case FIELD_TRACE_ID:
+                return header.getTraceID();
+            case FIELD_FIELD_RECORD_NUMBER_ID:
+                return header.getFieldRecordNumberID();
+            case FIELD_DIST_SRG:
+                return header.getDistSRG();
+            case FIELD_SRC_X:
+                return header.getSrcX();
+            case FIELD_SRC_Y:
+                return header.getSrcY();
+            case FIELD_SI:
+                return header.getSampleInterval();
+            case FIELD_ILINE_ID:
+                return header.getILineID();
+            case FIELD_XLINE_ID:
+                return header.getXLineID();
+            case FIELD_NAN_COUNT:
+                return trace.getNanCount();
+            case FIELD_QUANT_BITS:
+                return quantizer.getBits();
+            case FIELD_CDP_ID:
+                return header.getCdpID();
+            default:
+                throw new IllegalArgumentException("Not supported int32 field: " + fieldIndex);
+        }
+    }
+
+    @Override
+    public double getDouble(int fieldIndex, int index) {
+        switch (fieldIndex) {
+            case FIELD_TRACE_DATA:
+                return trace.getSamples()[index];
+            case FIELD_TRACE_MIN:
+                return trace.getTraceMin();
+            case FIELD_TRACE_MAX:
+                return trace.getTraceMax();
+            case FIELD_TRACE_MEAN:
+                return trace.getTraceMean();
+            case FIELD_TRACE_RMS:
+                return trace.getTraceRms();
+            case FIELD_QUANT_SCALE:
+                return quantizer.getScale();
+            case FIELD_QUANT_OFFSET:
+                return quantizer.getOffset();
+            default:
+                throw new IllegalArgumentException("Not supported double field: " + fieldIndex);
+        }
+    }
+
+    @Override
+    public boolean getBoolean(int fieldIndex, int index) {
+        if (fieldIndex != FIELD_DEAD) {
+            throw new IllegalArgumentException("Not supported boolean field: " + fieldIndex);
+        }
+        return trace.isDead();
+    }
+
+    @Override
+    public Binary getBinary(int fieldIndex, int index) {
+        // the column writer copies reused bytes when it has to keep them
+        switch (fieldIndex) {
+            case FIELD_TRACE_DATA_Q:
+                return Binary.fromReusedByteArray(quantizer.getBuffer(), 0, quantizer.getByteLength());
+            case FIELD_TRACE_HEADER:
+                return Binary.fromReusedByteArray(header.getRawHeader());
+            default:
+                throw new IllegalArgumentException("Not supported binary field: " + fieldIndex);
+        }
+    }
+
+    @Override
+    public String getValueToString(int fieldIndex, int index) {
+        switch (fieldIndex) {
+            case FIELD_DEAD:
+                return String.valueOf(getBoolean(fieldIndex, index));
+            case FIELD_TRACE_DATA_Q:
+            case FIELD_TRACE_HEADER:
+                return String.valueOf(getBinary(fieldIndex, index));
+            case FIELD_TRACE_DATA:
+            case FIELD_TRACE_MIN:
+            case FIELD_TRACE_MAX:
+            case FIELD_TRACE_MEAN:
+            case FIELD_TRACE_RMS:
+            case FIELD_QUANT_SCALE:
+            case FIELD_QUANT_OFFSET:
+                return String.valueOf(getDouble(fieldIndex, index));
+            default:
+                return String.valueOf(getInteger(fieldIndex, index));
+        }
+    }
+
+    @Override
+    public String getString(int fieldIndex, int index) {
+        throw new IllegalArgumentException("Not supported string field: " + fieldIndex);
+    }
+
+    @Override
+    public long getLong(int fieldIndex, int index) {
+        throw new IllegalArgumentException("Not supported int64 field: " + fieldIndex);
+    }
+
+    @Override
+    public float getFloat(int fieldIndex, int index) {
+        throw new IllegalArgumentException("Not supported float field: " + fieldIndex);
+    }
+
+    @Override
+    public Binary getInt96(int fieldIndex, int index) {
+        throw new IllegalArgumentException("Not supported int96 field: " + fieldIndex);
+    }
+
+    @Override
+    public Group getGroup(int fieldIndex, int index) {
+        throw new IllegalArgumentException("Not supported group field: " + fieldIndex);
+    }
+
+    @Override
+    public Group addGroup(int fieldIndex) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, int value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, long value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, String value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, boolean value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, NanoTime value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, Binary value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, float value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, double value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+
+    @Override
+    public void add(int fieldIndex, Group value) {
+        throw new UnsupportedOperationException("TraceGroup is read-only");
+    }
+}
@@ -9,18 +9,33 @@ package com.chirkunov.mr.segy2parquet;
 
 import static org.apache.parquet.schema.MessageTypeParser.parseMessageType;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 
 import org.apache.parquet.example.data.Group;
 import org.apache.parquet.example.data.GroupWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
 import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.OutputFile;
 import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
 import org.apache.parquet.schema.MessageType;
 import org.apache.parquet.schema.MessageTypeParser;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
 
 /**
  * Implementation of TraceGroupWriteSupport
@@ -38,11 +53,86 @@ public class TraceGroupWriteSupport extends WriteSupport<Group> {
             "required int32 ilineID = 7;\n" +
             "required int32 xlineID = 8;\n" +
             "repeated double traceData = 9;\n" +
+            "required double traceMin = 10;\n" +
+            "required double traceMax = 11;\n" +
+            "required double traceMean = 12;\n" +
+            "required double traceRms = 13;\n" +
+            "required int32 nanCount = 14;\n" +
+            "required boolean dead = 15;\n" +
+            "optional int32 quantBits = 16;\n" +
+            "optional double quantScale = 17;\n" +
+            "optional double quantOffset = 18;\n" +
+            "optional binary traceDataQ = 19;\n" +
+            "required int32 cdpID = 20;\n" +
+            "optional binary traceHeader = 21;\n" +
+            "}";
+
+    // Field indexes of the trace schema above (field id - 1), used by the row builders (ConverterJob.fillGroup, TraceGroup)
+    public static final int FIELD_TRACE_ID = 0;
+    public static final int FIELD_FIELD_RECORD_NUMBER_ID = 1;
+    public static final int FIELD_DIST_SRG = 2;
+    public static final int FIELD_SRC_X = 3;
+    public static final int FIELD_SRC_Y = 4;
+    public static final int FIELD_SI = 5;
+    public static final int FIELD_ILINE_ID = 6;
+    public static final int FIELD_XLINE_ID = 7;
+    public static final int FIELD_TRACE_DATA = 8;
+    public static final int FIELD_TRACE_MIN = 9;
+    public static final int FIELD_TRACE_MAX = 10;
+    public static final int FIELD_TRACE_MEAN = 11;
+    public static final int FIELD_TRACE_RMS = 12;
+    public static final int FIELD_NAN_COUNT = 13;
+    public static final int FIELD_DEAD = 14;
+    public static final int FIELD_QUANT_BITS = 15;
+    public static final int FIELD_QUANT_SCALE = 16;
+    public static final int FIELD_QUANT_OFFSET = 17;
+    public static final int FIELD_TRACE_DATA_Q = 18;
+    public static final int FIELD_CDP_ID = 19;
+    public static final int FIELD_TRACE_HEADER = 20;
+    // Field indexes of the gather schema, the hoisted header columns follow them (see getGatherSchema)
+    public static final int GATHER_ID = 0;
+    public static final int GATHER_TRACE_COUNT = 1;
+    public static final int GATHER_TRACES = 2;
+    public static final int GATHER_SOURCE_FILE = 3;
+    // Trace header columns hoisted to the gather row: constant within a shot (ffid, source position)
+    // or within a CDP gather (cdp, inline, crossline), and the sample interval
+    private static final int[] GATHER_FIELDS = {FIELD_FIELD_RECORD_NUMBER_ID, FIELD_SRC_X, FIELD_SRC_Y, FIELD_SI,
+            FIELD_ILINE_ID, FIELD_XLINE_ID, FIELD_CDP_ID};
+
+    // Setting of the output layout: one row per trace, or one row per gather with nested traces
+    public static final String OUTPUT_LAYOUT_SETTING = "com.chirkunov.mr.segy2parquet.OUTPUT_LAYOUT";
+    public static final String LAYOUT_TRACE = "trace";
+    public static final String LAYOUT_GATHER = "gather";
+    public static final String LAYOUT_BRICK = "brick";
+
+    // Footer metadata keys of the source SEGY file headers: segy.files (number of files), then for every file
+    // segy.<n>.file, segy.<n>.byteOrder, segy.<n>.textualHeader and segy.<n>.binaryHeader.<field> (see SEGYFileHeader)
+    public static final String METADATA_PREFIX = "segy.";
+    public static final String METADATA_FILES = METADATA_PREFIX + "files";
+    // Footer metadata key of the output settings chosen by CodecTuner
+    public static final String METADATA_TUNING = "segy2parquet.tuning";
+
+    private static String brickSchema = "message Brick {\n" +
+            "required int32 brickIline = 1;\n" +
+            "required int32 brickXline = 2;\n" +
+            "required int32 brickSample = 3;\n" +
+            "required int32 ilineMin = 4;\n" +
+            "required int32 ilineMax = 5;\n" +
+            "required int32 xlineMin = 6;\n" +
+            "required int32 xlineMax = 7;\n" +
+            "required int32 sampleMin = 8;\n" +
+            "required int32 sampleMax = 9;\n" +
+            "required int32 sizeIline = 10;\n" +
+            "required int32 sizeXline = 11;\n" +
+            "required int32 sizeSample = 12;\n" +
+            "required int32 traceCount = 13;\n" +
+            "required binary brickData = 14;\n" +
             "}";
 
     private MessageType schema;
     private GroupWriter groupWriter;
     private Map<String, String> extraMetaData;
+    private Configuration configuration;
 
     public TraceGroupWriteSupport() {
         // Protobuf description of an exported Parquet rows
@@ -56,6 +146,81 @@ public class TraceGroupWriteSupport extends WriteSupport<Group> {
         return MessageTypeParser.parseMessageType(writeSchema);
     }
 
+    /**
+     * Returns True if the trace field is hoisted to the gather row in the gather layout (see getGatherSchema)
+     * @param field field index of the trace schema
+     * @return
+     */
+    public static boolean isGatherField(int field) {
+        for (int hoisted : GATHER_FIELDS) {
+            if (hoisted == field) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns schema of the gather layout: gather key, number of traces, repeated trace structs,
+     * the source SEGY file and the hoisted header columns of the gather (values of its first trace).
+     * A trace struct has the fields of a row of the trace layout plus sourceFile; the hoisted columns
+     * are optional there and hold a value only where the trace differs from the gather row
+     * @return
+     */
+    public static MessageType getGatherSchema(){
+        MessageType trace = getSchema();
+        List<Type> traceFields = new ArrayList<Type>();
+        List<Type> hoisted = new ArrayList<Type>();
+        for (int i = 0; i < trace.getFieldCount(); i++) {
+            Type field = trace.getType(i);
+            if (isGatherField(i)) {
+                traceFields.add(Types.optional(PrimitiveType.PrimitiveTypeName.INT32).id(i + 1).named(field.getName()));
+                hoisted.add(Types.required(PrimitiveType.PrimitiveTypeName.INT32).id(GATHER_SOURCE_FILE + 2 + hoisted.size())
+                        .named(field.getName()));
+            } else {
+                traceFields.add(field);
+            }
+        }
+        traceFields.add(Types.optional(PrimitiveType.PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType())
+                .id(trace.getFieldCount() + 1).named("sourceFile"));
+        List<Type> fields = new ArrayList<Type>();
+        fields.add(Types.required(PrimitiveType.PrimitiveTypeName.INT32).id(1).named("gatherID"));
+        fields.add(Types.required(PrimitiveType.PrimitiveTypeName.INT32).id(2).named("traceCount"));
+        fields.add(new GroupType(Type.Repetition.REPEATED, "traces", traceFields).withId(3));
+        fields.add(Types.required(PrimitiveType.PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType())
+                .id(4).named("sourceFile"));
+        fields.addAll(hoisted);
+        return new MessageType("Gather", fields);
+    }
+
+    /**
+     * Returns schema of the brick layout: brick position, bounding box (inclusive), brick size
+     * and the compressed samples (see BrickCodec)
+     * @return
+     */
+    public static MessageType getBrickSchema(){
+        return MessageTypeParser.parseMessageType(brickSchema);
+    }
+
+    /**
+     * Returns schema of the output layout
+     * @param layout output layout name
+     * @return
+     * @throws IllegalArgumentException
+     */
+    public static MessageType getSchema(String layout) throws IllegalArgumentException {
+        switch (layout) {
+            case LAYOUT_TRACE:
+                return getSchema();
+            case LAYOUT_GATHER:
+                return getGatherSchema();
+            case LAYOUT_BRICK:
+                return getBrickSchema();
+            default:
+                throw new IllegalArgumentException("Not supported output layout: " + layout);
+        }
+    }
+
     @Override
     public String getName() {
         return "trace";
@@ -63,8 +228,62 @@ public class TraceGroupWriteSupport extends WriteSupport<Group> {
 
     @Override
     public org.apache.parquet.hadoop.api.WriteSupport.WriteContext init(Configuration configuration) {
-        // if present, prefer the schema passed to the constructor
-        return new WriteContext(MessageTypeParser.parseMessageType(writeSchema), this.extraMetaData);
+        this.schema = getSchema(configuration.get(OUTPUT_LAYOUT_SETTING, LAYOUT_TRACE));
+        this.configuration = configuration;
+        this.extraMetaData = new HashMap<String, String>();
+        if (configuration.get(CodecTuner.TUNING_SETTING) != null) {
+            this.extraMetaData.put(METADATA_TUNING, configuration.get(CodecTuner.TUNING_SETTING));
+        }
+        return new WriteContext(this.schema, this.extraMetaData);
+    }
+
+    /**
+     * Adds the source file headers to the footer; the writer is closed after the map task
+     * has set its input file (see SEGYInputFormat.setInputFile)
+     * @return
+     */
+    @Override
+    public FinalizedWriteContext finalizeWrite() {
+        try {
+            return new FinalizedWriteContext(getFileHeaderMetadata(configuration));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns footer metadata of the source file headers: the input file of the map task,
+     * or all input files from the survey header table for the reduce tasks
+     * @param conf task configuration
+     * @return
+     * @throws IOException
+     */
+    public static Map<String, String> getFileHeaderMetadata(Configuration conf) throws IOException {
+        Map<String, String> metadata = new HashMap<String, String>();
+        Map<String, byte[]> headers;
+        String inputFile = conf.get(SEGYInputFormat.INPUT_FILE_SETTING);
+        if (inputFile != null) {
+            headers = Collections.singletonMap(inputFile,
+                    Base64.getDecoder().decode(conf.get(SEGYInputFormat.FILE_HEADER_SETTING)));
+        } else {
+            headers = SurveyHeaderTable.read(conf);
+        }
+        int n = 0;
+        for (Map.Entry<String, byte[]> e : headers.entrySet()) {
+            String prefix = METADATA_PREFIX + n + ".";
+            ByteOrder order = SEGYFileHeader.byteOrder(e.getValue());
+            metadata.put(prefix + "file", e.getKey());
+            metadata.put(prefix + "byteOrder", order.toString());
+            metadata.put(prefix + "textualHeader", SEGYFileHeader.textHeader(e.getValue()));
+            for (Map.Entry<String, Number> field : SEGYFileHeader.binaryHeader(e.getValue(), order).entrySet()) {
+                metadata.put(prefix + "binaryHeader." + field.getKey(), field.getValue().toString());
+            }
+            n++;
+        }
+        if (n > 0) {
+            metadata.put(METADATA_FILES, Integer.toString(n));
+        }
+        return metadata;
     }
 
     @Override
@@ -76,5 +295,29 @@ public class TraceGroupWriteSupport extends WriteSupport<Group> {
     public void write(Group record) {
         groupWriter.write(record);
     }
+
+    /**
+     * ParquetWriter builder to write trace groups outside of MapReduce (tools and benchmarks)
+     */
+    public static class Builder extends ParquetWriter.Builder<Group, Builder> {
+
+        public Builder(Path file) {
+            super(file);
+        }
+
+        public Builder(OutputFile file) {
+            super(file);
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<Group> getWriteSupport(Configuration conf) {
+            return new TraceGroupWriteSupport();
+        }
+    }
 }
 
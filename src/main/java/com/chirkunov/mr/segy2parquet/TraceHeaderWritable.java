@@ -3,10 +3,13 @@
  * It contains base information about a trace, such as:
  * trace unique id (within SEGY),
  * field record number id,
+ * CDP ensemble number,
  * a distance from a source to a receiver,
  * X,Y coordinates of a source,
  * a sample interval in ms,
+ * a number of samples in the trace,
  * iline and xline ids,
+ * and the raw 240 bytes of the trace header (big-endian), so the fields which are not kept above survive export
  * @author Kirill Chirkunov (https://github.com/lliryc)
  */
 
@@ -17,6 +20,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Custom writable key for getting trace record header info
@@ -25,10 +29,12 @@ public class TraceHeaderWritable implements WritableComparable {
 
     public TraceHeaderWritable(){
         fieldRecordNumberID = 0;
+        cdpID = 0;
         distSRG = 0;
         srcX = 0;
         srcY = 0;
         sI = 0;
+        nSamples = 0;
         ilineID = 0;
         xlineID = 0;
     }
@@ -62,6 +68,20 @@ public class TraceHeaderWritable implements WritableComparable {
         return fieldRecordNumberID;
     }
 
+    //(21-24) Ensemble (CDP) number
+    private final int CDP_OFFSET = 20;
+    private final int CDP_SIZE = 4;
+
+    private int cdpID;
+
+    /**
+     * Returns an ensemble (CDP) number
+     * @return cdpID
+     */
+    public int getCdpID(){
+        return cdpID;
+    }
+
     //(37-40) Distance from center of the source point to the center of the receiver group
     private final int DST_SRG_OFFSET = 36;
     private final int DST_SRG_SIZE = 4;
@@ -109,13 +129,53 @@ public class TraceHeaderWritable implements WritableComparable {
     private short sI;
 
     /**
-     * Returns a sample interval
+     * Returns a sample interval, the raw 16 bits (the SEGY field is unsigned, see getSampleInterval)
      * @return sI
      */
     public short getSI(){
         return sI;
     }
 
+    /**
+     * Returns a sample interval as unsigned value, as it is stored in the sI column
+     * @return sample interval (0-65535)
+     */
+    public int getSampleInterval(){
+        return sI & 0xFFFF;
+    }
+
+    //(115-116) Number of samples in this trace
+    private static final int NS_OFFSET = 114;
+    private static final int NS_SIZE = 2;
+    private int nSamples;
+
+    /**
+     * Returns a number of data samples in the trace (unsigned, as stored in the trace header)
+     * @return nSamples
+     */
+    public int getNSamples(){
+        return nSamples;
+    }
+
+    /**
+     * Reads a number of data samples from the raw trace header bytes without parsing the other fields
+     * @param traceHeaderBytes bytes array (at least 240 bytes)
+     * @return number of data samples in the trace
+     */
+    public static int readNSamples(byte[] traceHeaderBytes){
+        return readNSamples(traceHeaderBytes, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Reads a number of data samples from the raw trace header bytes of the given byte order
+     * @param traceHeaderBytes bytes array (at least 240 bytes)
+     * @param order byte order of the SEGY file
+     * @return number of data samples in the trace
+     */
+    public static int readNSamples(byte[] traceHeaderBytes, ByteOrder order){
+        return ByteBuffer.wrap(traceHeaderBytes, NS_OFFSET, NS_SIZE).order(order).getShort() & 0xFFFF;
+    }
+
     //(189-192) inline number
     private final int IL_OFFSET = 188;
     private final int IL_SIZE = 4;
@@ -140,28 +200,197 @@ public class TraceHeaderWritable implements WritableComparable {
         return xlineID;
     }
 
+    //(1-240) raw trace header, in big-endian byte order
+    public static final int RAW_HEADER_SIZE = 240;
+    // runs of the rev1/rev2 trace header fields: 1-based first byte, field size, number of fields
+    // (bytes 235-240 are unassigned and kept as they are)
+    private static final int[][] FIELD_RUNS = {
+            {1, 4, 7}, {29, 2, 4}, {37, 4, 8}, {69, 2, 2}, {73, 4, 4}, {89, 2, 46},
+            {181, 4, 6}, {205, 2, 2}, {209, 4, 1}, {213, 2, 7}, {227, 4, 1}, {231, 2, 2}
+    };
+    private final byte[] rawHeader = new byte[RAW_HEADER_SIZE];
+    private boolean hasRawHeader;
+
+    /**
+     * True if the raw trace header is set (read from SEGY or from the traceHeader column), False otherwise
+     * @return
+     */
+    public boolean hasRawHeader(){
+        return hasRawHeader;
+    }
+
+    /**
+     * Returns the reused buffer of the raw trace header (big-endian), valid if hasRawHeader() is True
+     * @return
+     */
+    public byte[] getRawHeader(){
+        return rawHeader;
+    }
+
+    /**
+     * Sets the raw trace header (big-endian)
+     * @param bytes array with the header
+     * @param offset header offset in the array
+     * @param length header length, must be 240
+     * @throws IllegalArgumentException
+     */
+    public void setRawHeader(byte[] bytes, int offset, int length) throws IllegalArgumentException {
+        if (length != RAW_HEADER_SIZE) {
+            throw new IllegalArgumentException("Not supported trace header size: " + length);
+        }
+        System.arraycopy(bytes, offset, rawHeader, 0, RAW_HEADER_SIZE);
+        hasRawHeader = true;
+    }
+
+    /**
+     * Drops the raw trace header, only the kept fields are left
+     */
+    public void clearRawHeader(){
+        hasRawHeader = false;
+    }
+
+    /**
+     * Returns a header field by its Parquet column name
+     * @param column column name (traceID, fieldRecordNumberID, cdpID, distSRG, srcX, srcY, sI, ilineID, xlineID)
+     * @return field value
+     * @throws IllegalArgumentException
+     */
+    public int getField(String column) throws IllegalArgumentException {
+        switch (column) {
+            case "traceID": return traceID;
+            case "fieldRecordNumberID": return fieldRecordNumberID;
+            case "cdpID": return cdpID;
+            case "distSRG": return distSRG;
+            case "srcX": return srcX;
+            case "srcY": return srcY;
+            case "sI": return getSampleInterval();
+            case "ilineID": return ilineID;
+            case "xlineID": return xlineID;
+            default:
+                throw new IllegalArgumentException("Not a trace header column: " + column);
+        }
+    }
+
+    /**
+     * Sets a header field by its Parquet column name
+     * @param column column name (traceID, fieldRecordNumberID, cdpID, distSRG, srcX, srcY, sI, ilineID, xlineID)
+     * @param value field value
+     * @throws IllegalArgumentException
+     */
+    public void setField(String column, int value) throws IllegalArgumentException {
+        switch (column) {
+            case "traceID": traceID = value; break;
+            case "fieldRecordNumberID": fieldRecordNumberID = value; break;
+            case "cdpID": cdpID = value; break;
+            case "distSRG": distSRG = value; break;
+            case "srcX": srcX = value; break;
+            case "srcY": srcY = value; break;
+            case "sI":
+                // unsigned 16 bits, negative values of the outputs which stored sI as signed are taken as they are
+                if (value < Short.MIN_VALUE || value > 0xFFFF) {
+                    throw new IllegalArgumentException("Not supported sample interval: " + value);
+                }
+                sI = (short) value;
+                break;
+            case "ilineID": ilineID = value; break;
+            case "xlineID": xlineID = value; break;
+            default:
+                throw new IllegalArgumentException("Not a trace header column: " + column);
+        }
+    }
+
+    /**
+     * Sets a number of data samples in the trace
+     * @param nSamples number of data samples
+     */
+    public void setNSamples(int nSamples){
+        this.nSamples = nSamples;
+    }
+
     /**
      * Initialize TraceHeaderWritable from bytes array (following to SEGY spec)
      * @param traceHeaderBytes bytes array
      */
     public void fromBytes(byte[]traceHeaderBytes){
-        ByteBuffer bb = ByteBuffer.wrap(traceHeaderBytes);
-        bb.position(TRACEID_OFFSET);
-        traceID = bb.getInt();
-        bb.position(FRN_OFFSET);
-        fieldRecordNumberID = bb.getInt();
-        bb.position(DST_SRG_OFFSET);
-        distSRG = bb.getInt();
-        bb.position(SRCX_OFFSET);
-        srcX = bb.getInt();
-        bb.position(SRCY_OFFSET);
-        srcY = bb.getInt();
-        bb.position(SI_OFFSET);
-        sI = bb.getShort();
-        bb.position(IL_OFFSET);
-        ilineID = bb.getInt();
-        bb.position(XL_OFFSET);
-        xlineID = bb.getInt();
+        fromBytes(traceHeaderBytes, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Initialize TraceHeaderWritable from bytes array of the given byte order
+     * @param traceHeaderBytes bytes array
+     * @param order byte order of the SEGY file
+     */
+    public void fromBytes(byte[]traceHeaderBytes, ByteOrder order){
+        fromBytes(ByteBuffer.wrap(traceHeaderBytes).order(order));
+    }
+
+    /**
+     * Initialize TraceHeaderWritable from the trace header at the buffer position, in the byte order of the buffer
+     * The buffer position is left unchanged
+     * @param trace buffer with the trace (e.g. the reused off-heap buffer of TraceRecordReader)
+     */
+    public void fromBytes(ByteBuffer trace){
+        int base = trace.position();
+        traceID = trace.getInt(base + TRACEID_OFFSET);
+        fieldRecordNumberID = trace.getInt(base + FRN_OFFSET);
+        cdpID = trace.getInt(base + CDP_OFFSET);
+        distSRG = trace.getInt(base + DST_SRG_OFFSET);
+        srcX = trace.getInt(base + SRCX_OFFSET);
+        srcY = trace.getInt(base + SRCY_OFFSET);
+        sI = trace.getShort(base + SI_OFFSET);
+        nSamples = trace.getShort(base + NS_OFFSET) & 0xFFFF;
+        ilineID = trace.getInt(base + IL_OFFSET);
+        xlineID = trace.getInt(base + XL_OFFSET);
+        ByteBuffer raw = trace.duplicate();
+        raw.position(base);
+        raw.get(rawHeader);
+        if (trace.order() == ByteOrder.LITTLE_ENDIAN) {
+            for (int[] run : FIELD_RUNS) {
+                for (int i = 0; i < run[2]; i++) {
+                    reverse(rawHeader, run[0] - 1 + i * run[1], run[1]);
+                }
+            }
+        }
+        hasRawHeader = true;
+    }
+
+    /**
+     * Reverses bytes of a field in place
+     */
+    private static void reverse(byte[] bytes, int offset, int size) {
+        for (int i = offset, j = offset + size - 1; i < j; i++, j--) {
+            byte b = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = b;
+        }
+    }
+
+    /**
+     * Writes the header fields to a SEGY trace header bytes array (inverse of fromBytes)
+     * Fields which are not kept by TraceHeaderWritable are left untouched
+     * @param traceHeaderBytes bytes array (at least 240 bytes)
+     */
+    public void toBytes(byte[] traceHeaderBytes){
+        toBytes(traceHeaderBytes, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Writes the header fields to a SEGY trace header bytes array of the given byte order
+     * @param traceHeaderBytes bytes array (at least 240 bytes)
+     * @param order byte order of the SEGY file
+     */
+    public void toBytes(byte[] traceHeaderBytes, ByteOrder order){
+        ByteBuffer bb = ByteBuffer.wrap(traceHeaderBytes).order(order);
+        bb.putInt(TRACEID_OFFSET, traceID);
+        bb.putInt(FRN_OFFSET, fieldRecordNumberID);
+        bb.putInt(CDP_OFFSET, cdpID);
+        bb.putInt(DST_SRG_OFFSET, distSRG);
+        bb.putInt(SRCX_OFFSET, srcX);
+        bb.putInt(SRCY_OFFSET, srcY);
+        bb.putShort(NS_OFFSET, (short) nSamples);
+        bb.putShort(SI_OFFSET, sI);
+        bb.putInt(IL_OFFSET, ilineID);
+        bb.putInt(XL_OFFSET, xlineID);
     }
 
     /**
@@ -173,12 +402,18 @@ public class TraceHeaderWritable implements WritableComparable {
     public void write(DataOutput dataOutput) throws IOException {
         dataOutput.writeInt(traceID);
         dataOutput.writeInt(fieldRecordNumberID);
+        dataOutput.writeInt(cdpID);
         dataOutput.writeInt(distSRG);
         dataOutput.writeInt(srcX);
         dataOutput.writeInt(srcY);
         dataOutput.writeShort(sI);
+        dataOutput.writeInt(nSamples);
         dataOutput.writeInt(ilineID);
         dataOutput.writeInt(xlineID);
+        dataOutput.writeBoolean(hasRawHeader);
+        if (hasRawHeader) {
+            dataOutput.write(rawHeader);
+        }
     }
 
     /**
@@ -190,12 +425,18 @@ public class TraceHeaderWritable implements WritableComparable {
     public void readFields(DataInput dataInput) throws IOException {
         traceID = dataInput.readInt();
         fieldRecordNumberID = dataInput.readInt();
+        cdpID = dataInput.readInt();
         distSRG = dataInput.readInt();
         srcX = dataInput.readInt();
         srcY = dataInput.readInt();
         sI = dataInput.readShort();
+        nSamples = dataInput.readInt();
         ilineID = dataInput.readInt();
         xlineID = dataInput.readInt();
+        hasRawHeader = dataInput.readBoolean();
+        if (hasRawHeader) {
+            dataInput.readFully(rawHeader);
+        }
     }
 
     /**
@@ -205,12 +446,18 @@ public class TraceHeaderWritable implements WritableComparable {
     public void set(TraceHeaderWritable tw){
         traceID = tw.traceID;
         fieldRecordNumberID = tw.getFieldRecordNumberID();
+        cdpID = tw.getCdpID();
         distSRG = tw.getDistSRG();
         srcX = tw.getSrcX();
         srcY = tw.getSrcY();
         sI = tw.getSI();
+        nSamples = tw.getNSamples();
         ilineID = tw.getILineID();
         xlineID = tw.getXLineID();
+        hasRawHeader = tw.hasRawHeader;
+        if (hasRawHeader) {
+            System.arraycopy(tw.rawHeader, 0, rawHeader, 0, RAW_HEADER_SIZE);
+        }
     }
 
     /**
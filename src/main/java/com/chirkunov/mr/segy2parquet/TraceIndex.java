@@ -0,0 +1,198 @@
+/**
+ * Lightweight trace-offset index for SEGY files with variable-length traces
+ * Every trace header stores its own number of samples (bytes 115-116), so trace boundaries
+ * can only be found by hopping from one trace header to the next one.
+ * The index is built once per file and cached next to it as a hidden file,
+ * so subsequent jobs over the same SEGY reuse it without scanning again.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trace-offset index of a SEGY file
+ */
+public class TraceIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TraceIndex.class);
+
+    // magic number of the cached index file ("TRIX")
+    private static final int INDEX_MAGIC = 0x54524958;
+    // index file version
+    private static final int INDEX_VERSION = 1;
+    // suffix of the cached index file
+    private static final String INDEX_SUFFIX = ".tridx";
+    // read-ahead of the scan, so that trace headers are read sequentially in large chunks
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+
+    private final long[] offsets;
+    private final long end;
+
+    private TraceIndex(long[] offsets, long end) {
+        this.offsets = offsets;
+        this.end = end;
+    }
+
+    /**
+     * Returns number of indexed traces
+     * @return
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns file offset of the i-th trace
+     * @param i trace number (from 0)
+     * @return
+     */
+    public long offset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Returns file offset right after the last complete trace
+     * @return
+     */
+    public long end() {
+        return end;
+    }
+
+    /**
+     * Returns a path of the cached index for the SEGY file
+     * Hidden (dot-prefixed) name keeps it out of FileInputFormat listings
+     * @param file SEGY file
+     * @return
+     */
+    public static Path indexPath(Path file) {
+        return new Path(file.getParent(), "." + file.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Loads the cached index if it is still valid for the file, otherwise scans the file and caches the result
+     * @param fs file system
+     * @param file SEGY file status
+     * @param start offset of the first trace
+     * @param bytesPerSample size of one data sample in bytes
+     * @param order byte order of the SEGY file
+     * @return trace index
+     * @throws IOException
+     */
+    public static TraceIndex loadOrBuild(FileSystem fs, FileStatus file, long start, int bytesPerSample, ByteOrder order) throws IOException {
+        Path idxPath = indexPath(file.getPath());
+        TraceIndex index = load(fs, idxPath, file);
+        if (index != null) {
+            return index;
+        }
+        index = build(fs, file, start, bytesPerSample, order);
+        try {
+            index.save(fs, idxPath, file);
+        } catch (IOException e) {
+            // read-only input location: the index is still usable for this job
+            LOG.warn("Unable to cache trace index " + idxPath + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Scans SEGY file trace by trace, reading only the number of samples from each trace header
+     * The file is read as one buffered sequential stream rather than with a positioned read per trace
+     * @param fs file system
+     * @param file SEGY file status
+     * @param start offset of the first trace
+     * @param bytesPerSample size of one data sample in bytes
+     * @param order byte order of the SEGY file
+     * @return trace index
+     * @throws IOException
+     */
+    public static TraceIndex build(FileSystem fs, FileStatus file, long start, int bytesPerSample, ByteOrder order) throws IOException {
+        long length = file.getLen();
+        long[] offsets = new long[1024];
+        int count = 0;
+        long pos = start;
+        byte[] header = new byte[SEGYInputFormat.TRACE_HEADER_SIZE];
+        try (FSDataInputStream stream = fs.open(file.getPath())) {
+            stream.seek(start);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, SCAN_BUFFER_SIZE));
+            while (pos + SEGYInputFormat.TRACE_HEADER_SIZE <= length) {
+                in.readFully(header);
+                long next = pos + SEGYInputFormat.TRACE_HEADER_SIZE
+                        + (long) TraceHeaderWritable.readNSamples(header, order) * bytesPerSample;
+                if (next > length) {
+                    // truncated trace at the end of file
+                    break;
+                }
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = pos;
+                // samples of the trace
+                IOUtils.skipFully(in, next - pos - SEGYInputFormat.TRACE_HEADER_SIZE);
+                pos = next;
+            }
+        }
+        return new TraceIndex(Arrays.copyOf(offsets, count), pos);
+    }
+
+    /**
+     * Loads the cached index, returns null if it is missing or stale
+     */
+    private static TraceIndex load(FileSystem fs, Path idxPath, FileStatus file) {
+        try {
+            if (!fs.exists(idxPath)) {
+                return null;
+            }
+            try (DataInputStream in = fs.open(idxPath)) {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                        || in.readLong() != file.getLen() || in.readLong() != file.getModificationTime()) {
+                    return null;
+                }
+                long end = in.readLong();
+                long[] offsets = new long[in.readInt()];
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = in.readLong();
+                }
+                return new TraceIndex(offsets, end);
+            }
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Unable to read trace index " + idxPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores index next to the SEGY file
+     */
+    private void save(FileSystem fs, Path idxPath, FileStatus file) throws IOException {
+        try (FSDataOutputStream out = fs.create(idxPath, true)) {
+            DataOutputStream dos = new DataOutputStream(out);
+            dos.writeInt(INDEX_MAGIC);
+            dos.writeInt(INDEX_VERSION);
+            dos.writeLong(file.getLen());
+            dos.writeLong(file.getModificationTime());
+            dos.writeLong(end);
+            dos.writeInt(offsets.length);
+            for (long offset : offsets) {
+                dos.writeLong(offset);
+            }
+            dos.flush();
+        }
+    }
+}
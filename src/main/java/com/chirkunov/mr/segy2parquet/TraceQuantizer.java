@@ -0,0 +1,213 @@
+/**
+ * Lossy int16/int8 quantization of trace data samples with per-trace scale and offset
+ * Samples are mapped to the integer range symmetrically around the middle of the trace
+ * amplitude range: sample = offset + scale * q, so the absolute error is bounded by scale / 2.
+ * A trace is quantized only if the RMS of the actual quantization error fits into the configured bound,
+ * relative to the RMS amplitude of the trace; otherwise it is expected to be stored as is.
+ * A bound relative to the peak amplitude would never reject a trace (the error is at most peak / (2 * qMax)),
+ * while the RMS reference rejects traces whose energy sits far below the peak (e.g. strongly decaying traces
+ * with int8), where the quantization step is coarse against most of the signal.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Quantizer of trace data samples
+ */
+public class TraceQuantizer {
+
+    // byte order of quantized samples
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final int bits;
+    private final int qMax;
+    private final double maxRelError;
+    private byte[] buffer = new byte[0];
+    private int byteLength;
+    private double scale;
+    private double offset;
+
+    /**
+     * Creates quantizer
+     * @param bits bits per quantized sample (16 or 8)
+     * @param maxRelError maximum RMS error relative to the trace RMS amplitude
+     * @throws IllegalArgumentException
+     */
+    public TraceQuantizer(int bits, double maxRelError) throws IllegalArgumentException {
+        if (bits != 16 && bits != 8) {
+            throw new IllegalArgumentException("Not supported quantization bits: " + bits);
+        }
+        this.bits = bits;
+        this.qMax = (bits == 16) ? Short.MAX_VALUE : Byte.MAX_VALUE;
+        this.maxRelError = maxRelError;
+    }
+
+    /**
+     * Returns quantizer for the sample encoding name (int16, int8), or null for the lossless double encoding
+     * @param encoding sample encoding name
+     * @param maxRelError maximum RMS error relative to the trace RMS amplitude
+     * @return
+     * @throws IllegalArgumentException
+     */
+    public static TraceQuantizer forEncoding(String encoding, double maxRelError) throws IllegalArgumentException {
+        switch (encoding) {
+            case "double":
+                return null;
+            case "int16":
+                return new TraceQuantizer(16, maxRelError);
+            case "int8":
+                return new TraceQuantizer(8, maxRelError);
+            default:
+                throw new IllegalArgumentException("Not supported sample encoding: " + encoding);
+        }
+    }
+
+    /**
+     * Quantizes trace samples, given their range (as computed by TraceWritable)
+     * @param samples trace data samples
+     * @param length number of samples
+     * @param min minimum sample
+     * @param max maximum sample
+     * @param nanCount number of NaN samples
+     * @return True if samples were quantized within the error bound, False otherwise (the buffer is then undefined)
+     */
+    public boolean quantize(double[] samples, int length, double min, double max, int nanCount) {
+        if (nanCount > 0 || Double.isInfinite(min) || Double.isInfinite(max)) {
+            return false;
+        }
+        double halfRange = (max - min) / 2;
+        offset = min + halfRange;
+        scale = halfRange / qMax;
+        int bytesPerSample = bits / 8;
+        byteLength = length * bytesPerSample;
+        if (buffer.length < byteLength) {
+            buffer = new byte[byteLength];
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buffer).order(BYTE_ORDER);
+        double invScale = (scale == 0) ? 0 : 1 / scale;
+        double signalEnergy = 0;
+        double errorEnergy = 0;
+        for (int i = 0; i < length; i++) {
+            long q = Math.round((samples[i] - offset) * invScale);
+            // guard against rounding just outside of the range
+            if (q > qMax) q = qMax;
+            if (q < -qMax) q = -qMax;
+            if (bits == 16) {
+                bb.putShort((short) q);
+            } else {
+                bb.put((byte) q);
+            }
+            double err = offset + scale * q - samples[i];
+            signalEnergy += samples[i] * samples[i];
+            errorEnergy += err * err;
+        }
+        // RMS error <= maxRelError * RMS amplitude, compared squared over the same sample count
+        return errorEnergy <= maxRelError * maxRelError * signalEnergy;
+    }
+
+    /**
+     * Returns bits per quantized sample
+     * @return
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Returns scale of the last quantized trace
+     * @return
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Returns offset of the last quantized trace
+     * @return
+     */
+    public double getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns quantized samples of the last quantized trace
+     * @return
+     */
+    public byte[] getBytes() {
+        return Arrays.copyOf(buffer, byteLength);
+    }
+
+    /**
+     * Returns the reusable buffer of the last quantized trace without copying, only first getByteLength() bytes are valid
+     * The buffer is overwritten by the next quantize call
+     * @return
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns number of bytes of the last quantized trace
+     * @return
+     */
+    public int getByteLength() {
+        return byteLength;
+    }
+
+    /**
+     * Reconstructs trace data samples from their quantized representation
+     * @param quantized quantized samples (little-endian)
+     * @param bits bits per quantized sample (16 or 8)
+     * @param scale trace scale
+     * @param offset trace offset
+     * @return trace data samples
+     * @throws IllegalArgumentException
+     */
+    public static double[] decode(byte[] quantized, int bits, double scale, double offset) throws IllegalArgumentException {
+        double[] samples = new double[sampleCount(quantized.length, bits)];
+        decode(quantized, bits, scale, offset, samples);
+        return samples;
+    }
+
+    /**
+     * Reconstructs trace data samples from their quantized representation into a reusable buffer
+     * @param quantized quantized samples (little-endian)
+     * @param bits bits per quantized sample (16 or 8)
+     * @param scale trace scale
+     * @param offset trace offset
+     * @param samples output buffer, at least sampleCount(quantized.length, bits) long
+     * @return number of decoded samples
+     * @throws IllegalArgumentException
+     */
+    public static int decode(byte[] quantized, int bits, double scale, double offset, double[] samples) throws IllegalArgumentException {
+        ByteBuffer bb = ByteBuffer.wrap(quantized).order(BYTE_ORDER);
+        int n = sampleCount(quantized.length, bits);
+        if (bits == 16) {
+            for (int i = 0; i < n; i++) {
+                samples[i] = offset + scale * bb.getShort();
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                samples[i] = offset + scale * bb.get();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns number of samples in the quantized representation
+     * @param byteLength size of quantized samples in bytes
+     * @param bits bits per quantized sample (16 or 8)
+     * @return
+     * @throws IllegalArgumentException
+     */
+    public static int sampleCount(int byteLength, int bits) throws IllegalArgumentException {
+        if (bits != 16 && bits != 8) {
+            throw new IllegalArgumentException("Not supported quantization bits: " + bits);
+        }
+        return byteLength / (bits / 8);
+    }
+}
@@ -4,11 +4,24 @@
  */
 package com.chirkunov.mr.segy2parquet;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ByteBufferReadable;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -18,7 +31,18 @@ import org.apache.hadoop.mapreduce.lib.input.FileSplit;
  * Custom implementation of RecordReader<TraceHeaderWritable, TraceWritable> to read SEGY traces
  */
 public class TraceRecordReader extends RecordReader<TraceHeaderWritable, TraceWritable>{
-	private FSDataInputStream inputStream = null;
+
+	/**
+	 * Task counters of the trace buffer: number of (re)allocations and the final capacity in bytes
+	 * There is no buffer pool, so there are no pool hit/miss counters
+	 */
+	public enum Counters {
+		TRACE_BUFFER_ALLOCATIONS,
+		TRACE_BUFFER_BYTES
+	}
+
+	private DataInputStream inputStream = null;
+	private Decompressor decompressor = null;
 	private long start;
     private long end;
     private long pos;
@@ -29,6 +53,17 @@ public class TraceRecordReader extends RecordReader<TraceHeaderWritable, TraceWr
     private int nSamples;
     private int bytesPerSample;
     private int nFmt;
+    private boolean variableLength;
+    private ByteOrder byteOrder;
+    private byte[] traceHeaderBytes = new byte[SEGYInputFormat.TRACE_HEADER_SIZE];
+    // raw traces are read into one reused off-heap buffer, a trace is decoded before the next one is read;
+    // the samples are decoded into the on-heap buffer of the TraceWritable, the writers never see this buffer
+    private ByteBuffer traceBuffer;
+    private long bufferAllocations;
+    private TaskAttemptContext context;
+    // HDFS streams read straight into the buffer, other streams through a channel with a small reused copy buffer
+    private boolean byteBufferReadable;
+    private ReadableByteChannel channel;
 
 	/**
 	 * Close read session
@@ -37,6 +72,15 @@ public class TraceRecordReader extends RecordReader<TraceHeaderWritable, TraceWr
 	@Override
 	public void close() throws IOException {
 			inputStream.close();		
+			if (decompressor != null) {
+				CodecPool.returnDecompressor(decompressor);
+				decompressor = null;
+			}
+			if (traceBuffer != null) {
+				increment(Counters.TRACE_BUFFER_ALLOCATIONS, bufferAllocations);
+				increment(Counters.TRACE_BUFFER_BYTES, traceBuffer.capacity());
+				traceBuffer = null;
+			}
 	}
 
 	/**
@@ -75,17 +119,49 @@ public class TraceRecordReader extends RecordReader<TraceHeaderWritable, TraceWr
 	@Override
 	public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
 		FileSplit fileSplit = (FileSplit) split;
+		this.context = context;
 		conf = context.getConfiguration();
 		this.start = fileSplit.getStart();  
         this.end = this.start + fileSplit.getLength();
 		Path path = fileSplit.getPath();
 		FileSystem fs = path.getFileSystem(conf); 
-		this.inputStream = fs.open(path);  
-		inputStream.seek(this.start);  
+		FSDataInputStream fileStream = fs.open(path);
+		if (split instanceof CompressedTraceSplit) {
+			// decompress from the start of the frame holding the first trace, up to the split start
+			CompressedTraceSplit compressedSplit = (CompressedTraceSplit) split;
+			CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+			decompressor = CodecPool.getDecompressor(codec);
+			if (compressedSplit.getWindow() != null) {
+				// checkpoint inside a gzip member
+				this.inputStream = new DataInputStream(new GzipCheckpointInputStream(fileStream,
+						compressedSplit.getFrameOffset(), compressedSplit.getFrameBitOffset(), compressedSplit.getWindow(),
+						codec, decompressor));
+			} else {
+				fileStream.seek(compressedSplit.getFrameOffset());
+				this.inputStream = new DataInputStream(codec.createInputStream(fileStream, decompressor));
+			}
+			IOUtils.skipFully(inputStream, this.start - compressedSplit.getFrameStart());
+		} else {
+			fileStream.seek(this.start);
+			this.inputStream = fileStream;
+			this.byteBufferReadable = fileStream.getWrappedStream() instanceof ByteBufferReadable;
+		}
+		this.channel = Channels.newChannel(inputStream);
 		this.pos = this.start;
-		this.nSamples =  conf.getInt(SEGYInputFormat.TRACE_SAMPLES_SETTING, 3000);
-		this.bytesPerSample =  conf.getInt(SEGYInputFormat.TRACE_BYTE_PER_SAMPLE_SETTING, 4);
-		this.nFmt =  conf.getInt(SEGYInputFormat.TRACE_NUM_FMT_SETTING, 4);
+		if (split instanceof SEGYSplit) {
+			// layout of the split's own file, inputs may mix files of different layouts
+			SEGYSplit segySplit = (SEGYSplit) split;
+			this.nSamples = segySplit.getNSamples();
+			this.nFmt = segySplit.getNumFormat();
+			this.bytesPerSample = NumFormatUtil.numBytesByFormat(segySplit.getNumFormat());
+			this.byteOrder = segySplit.getByteOrder();
+		} else {
+			this.nSamples =  conf.getInt(SEGYInputFormat.TRACE_SAMPLES_SETTING, 3000);
+			this.bytesPerSample =  conf.getInt(SEGYInputFormat.TRACE_BYTE_PER_SAMPLE_SETTING, 4);
+			this.nFmt =  conf.getInt(SEGYInputFormat.TRACE_NUM_FMT_SETTING, 4);
+			this.byteOrder = SEGYInputFormat.getByteOrder(conf);
+		}
+		this.variableLength = conf.getBoolean(SEGYInputFormat.TRACE_VARIABLE_LENGTH_SETTING, false);
 	}
 
 	/**
@@ -96,17 +172,65 @@ public class TraceRecordReader extends RecordReader<TraceHeaderWritable, TraceWr
 	@Override
 	public boolean nextKeyValue() throws IOException {
 
-		if (this.pos < this.end) {
+		if (this.pos < this.end && this.variableLength) {
+			// the trace header tells how many samples follow it
+			inputStream.readFully(traceHeaderBytes);
+			int traceSamples = TraceHeaderWritable.readNSamples(traceHeaderBytes, byteOrder);
+			int traceSize = SEGYInputFormat.TRACE_HEADER_SIZE + traceSamples * this.bytesPerSample;
+			ByteBuffer trace = traceBuffer(traceSize);
+			trace.put(traceHeaderBytes);
+			readFully(trace);
+			trace.flip();
+			value.set(trace, nFmt, traceSamples);
+			key.set(value.getTraceHeader());
+			this.pos += traceSize;
+			return true;
+		} else if (this.pos < this.end) {
 			int traceSize = SEGYInputFormat.TRACE_HEADER_SIZE + this.nSamples * this.bytesPerSample;
-			byte[] traceBytes = new byte[traceSize];
-			inputStream.read(traceBytes);
-			value.set(traceBytes, nFmt, nSamples);
+			ByteBuffer trace = traceBuffer(traceSize);
+			readFully(trace);
+			trace.flip();
+			value.set(trace, nFmt, nSamples);
 			key.set(value.getTraceHeader());
-			this.pos = inputStream.getPos();
+			this.pos += traceSize;
 			return true;
 		} else {
 			processed = true;
 			return false;
 		}
 	}
+
+	/**
+	 * Returns the trace buffer cleared, with the limit set to the trace size; it grows for longer traces only
+	 */
+	private ByteBuffer traceBuffer(int traceSize) {
+		if (traceBuffer == null || traceBuffer.capacity() < traceSize) {
+			traceBuffer = ByteBuffer.allocateDirect(traceSize).order(byteOrder);
+			bufferAllocations++;
+		}
+		traceBuffer.clear();
+		traceBuffer.limit(traceSize);
+		return traceBuffer;
+	}
+
+	private void increment(Counters name, long value) {
+		// contexts created outside of a running task (e.g. by CodecTuner) have no counters
+		Counter counter = context.getCounter(name);
+		if (counter != null) {
+			counter.increment(value);
+		}
+	}
+
+	/**
+	 * Reads the remaining bytes of the buffer from the split stream
+	 * @throws IOException
+	 */
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = byteBufferReadable ? ((FSDataInputStream) inputStream).read(buffer) : channel.read(buffer);
+			if (n < 0) {
+				throw new EOFException("Unexpected end of the SEGY trace at " + (pos + buffer.position()));
+			}
+		}
+	}
 }
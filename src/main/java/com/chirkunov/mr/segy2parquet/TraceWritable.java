@@ -9,6 +9,8 @@ import org.apache.hadoop.io.DoubleWritable;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 /**
  * Custom writable implementation for a seismic trace
@@ -16,12 +18,22 @@ import java.nio.ByteBuffer;
 public class TraceWritable implements Writable {
 
     private TraceHeaderWritable traceHeader;
-    private DoubleWritable[] traceData;
+    // reusable samples buffer, only first traceLength samples are valid
+    private double[] traceData;
+    private int traceLength;
+    // per-trace statistics, computed while samples are decoded
+    private double traceMin;
+    private double traceMax;
+    private double traceMean;
+    private double traceRms;
+    private int nanCount;
+    private boolean dead;
 
     //default constructor for (de)serialization
     public TraceWritable() {
         traceHeader = new TraceHeaderWritable();
-        traceData = new DoubleWritable[0];
+        traceData = new double[0];
+        traceLength = 0;
     }
 
     /**
@@ -31,10 +43,16 @@ public class TraceWritable implements Writable {
      */
     public void write(DataOutput dataOutput) throws IOException {
         traceHeader.write(dataOutput);
-        dataOutput.writeInt(traceData.length);
-        for(int i=0; i<traceData.length; i++){
-            traceData[i].write(dataOutput);
+        dataOutput.writeInt(traceLength);
+        for(int i=0; i<traceLength; i++){
+            dataOutput.writeDouble(traceData[i]);
         }
+        dataOutput.writeDouble(traceMin);
+        dataOutput.writeDouble(traceMax);
+        dataOutput.writeDouble(traceMean);
+        dataOutput.writeDouble(traceRms);
+        dataOutput.writeInt(nanCount);
+        dataOutput.writeBoolean(dead);
     }
 
     /**
@@ -45,11 +63,16 @@ public class TraceWritable implements Writable {
     public void readFields(DataInput dataInput) throws IOException {
         traceHeader.readFields(dataInput);
         int size = dataInput.readInt();
-        traceData = new DoubleWritable[size];
-        for(int i=0; i<traceData.length; i++){
-            double v = dataInput.readDouble();
-            traceData[i] = new DoubleWritable(v);
+        double[] samples = resizeTraceData(size);
+        for(int i=0; i<size; i++){
+            samples[i] = dataInput.readDouble();
         }
+        traceMin = dataInput.readDouble();
+        traceMax = dataInput.readDouble();
+        traceMean = dataInput.readDouble();
+        traceRms = dataInput.readDouble();
+        nanCount = dataInput.readInt();
+        dead = dataInput.readBoolean();
     }
 
     /**
@@ -73,6 +96,41 @@ public class TraceWritable implements Writable {
      * @return
      */
     public DoubleWritable[] getTraceData(){
+        DoubleWritable[] val = new DoubleWritable[traceLength];
+        for(int i = 0; i < traceLength; i++){
+            val[i] = new DoubleWritable(traceData[i]);
+        }
+        return val;
+    }
+
+    /**
+     * Returns the reusable samples buffer without copying, only first getTraceLength() samples are valid
+     * The buffer is overwritten by the next set/readFields call
+     * @return
+     */
+    public double[] getSamples(){
+        return traceData;
+    }
+
+    /**
+     * Returns a number of data samples in the trace
+     * @return
+     */
+    public int getTraceLength(){
+        return traceLength;
+    }
+
+    /**
+     * Sets a number of data samples and returns the reusable samples buffer to fill them in
+     * Samples already in the buffer are kept when it grows
+     * @param length number of data samples
+     * @return samples buffer (at least length long)
+     */
+    public double[] resizeTraceData(int length){
+        if (traceData.length < length) {
+            traceData = Arrays.copyOf(traceData, Math.max(length, traceData.length * 2));
+        }
+        traceLength = length;
         return traceData;
     }
 
@@ -81,11 +139,11 @@ public class TraceWritable implements Writable {
      * @return
      */
     public byte[] getTraceDataBytes(){
-        int bufSize =  traceData.length * Double.BYTES;
+        int bufSize =  traceLength * Double.BYTES;
         byte[] buffer = new byte[bufSize];
         ByteBuffer bb = ByteBuffer.wrap(buffer);
-        for(int i=0; i<traceData.length;i++){
-            bb.putDouble(traceData[i].get());
+        for(int i=0; i<traceLength;i++){
+            bb.putDouble(traceData[i]);
         }
         return bb.array();
     }
@@ -95,11 +153,7 @@ public class TraceWritable implements Writable {
      * @return
      */
     public double[] getTraceDataDouble(){
-        double[] val = new double[traceData.length];
-        for(int i  = 0; i < traceData.length; i++){
-            val[i] = traceData[i].get();
-        }
-        return val;
+        return Arrays.copyOf(traceData, traceLength);
     }
 
     /**
@@ -107,30 +161,177 @@ public class TraceWritable implements Writable {
      * @return
      */
     public void setTraceData(DoubleWritable[] traceData){
-        this.traceData = traceData;
+        double[] samples = resizeTraceData(traceData.length);
+        for(int i = 0; i < traceData.length; i++){
+            samples[i] = traceData[i].get();
+        }
+        updateStatistics();
+    }
+
+    /**
+     * Returns a minimum of the trace samples (NaN samples are skipped)
+     * @return
+     */
+    public double getTraceMin() {
+        return traceMin;
+    }
+
+    /**
+     * Returns a maximum of the trace samples (NaN samples are skipped)
+     * @return
+     */
+    public double getTraceMax() {
+        return traceMax;
+    }
+
+    /**
+     * Returns a mean of the trace samples (NaN samples are skipped)
+     * @return
+     */
+    public double getTraceMean() {
+        return traceMean;
+    }
+
+    /**
+     * Returns a root mean square of the trace samples (NaN samples are skipped)
+     * @return
+     */
+    public double getTraceRms() {
+        return traceRms;
+    }
+
+    /**
+     * Returns a number of NaN samples in the trace
+     * @return
+     */
+    public int getNanCount() {
+        return nanCount;
+    }
+
+    /**
+     * True if the trace carries no signal (all samples are zero or NaN), False otherwise
+     * @return
+     */
+    public boolean isDead() {
+        return dead;
     }
 
     /**
      * Initialize TraceWritable from byte array, given a number format and data samples per trace
+     * Trace statistics are accumulated in the same loop that decodes the samples
      * @param traceBytes trace byte array
      * @param nFmt SEGY number format
      * @param nSamples data samples per trace
      * @throws IOException
      */
     public void set(byte[] traceBytes, int nFmt, int nSamples) throws IOException {
+        set(traceBytes, nFmt, nSamples, ByteOrder.BIG_ENDIAN);
+    }
 
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(traceBytes));
-
-        byte[] traceHeaderBytes = new byte[SEGYInputFormat.TRACE_HEADER_SIZE];
+    /**
+     * Initialize TraceWritable from byte array of the given byte order
+     * @param traceBytes trace byte array
+     * @param nFmt SEGY number format
+     * @param nSamples data samples per trace
+     * @param order byte order of the SEGY file
+     * @throws IOException
+     */
+    public void set(byte[] traceBytes, int nFmt, int nSamples, ByteOrder order) throws IOException {
+        set(ByteBuffer.wrap(traceBytes).order(order), nFmt, nSamples);
+    }
 
-        dis.read(traceHeaderBytes);
+    /**
+     * Initialize TraceWritable from the trace at the buffer position, in the byte order of the buffer
+     * The samples are decoded into the reusable samples buffer, so the trace buffer can be released afterwards
+     * @param trace buffer with the trace (e.g. the reused off-heap buffer of TraceRecordReader)
+     * @param nFmt SEGY number format
+     * @param nSamples data samples per trace
+     * @throws IOException
+     */
+    public void set(ByteBuffer trace, int nFmt, int nSamples) throws IOException {
 
-        traceHeader.fromBytes(traceHeaderBytes);
-        traceData = new DoubleWritable[nSamples];
+        traceHeader.fromBytes(trace);
+        double[] samples = resizeTraceData(nSamples);
 
+        trace.position(trace.position() + SEGYInputFormat.TRACE_HEADER_SIZE);
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        double sumSq = 0;
+        int nans = 0;
         for(int i = 0; i < nSamples; i++){
-            traceData[i] = new DoubleWritable(NumFormatUtil.readFrom(nFmt, dis));
+            double v = NumFormatUtil.readFrom(nFmt, trace);
+            samples[i] = v;
+            if (v != v) {
+                nans++;
+                continue;
+            }
+            if (v < min) min = v;
+            if (v > max) max = v;
+            sum += v;
+            sumSq += v * v;
+        }
+        finishStatistics(min, max, sum, sumSq, nSamples - nans, nans);
+    }
+
+    /**
+     * Recomputes trace statistics from the samples buffer
+     */
+    public void updateStatistics() {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        double sumSq = 0;
+        int nans = 0;
+        for(int i = 0; i < traceLength; i++){
+            double v = traceData[i];
+            if (v != v) {
+                nans++;
+                continue;
+            }
+            if (v < min) min = v;
+            if (v > max) max = v;
+            sum += v;
+            sumSq += v * v;
+        }
+        finishStatistics(min, max, sum, sumSq, traceLength - nans, nans);
+    }
+
+    /**
+     * Sets trace statistics computed elsewhere (e.g. stored along with the trace)
+     * @param traceMin minimum sample
+     * @param traceMax maximum sample
+     * @param traceMean mean of the samples
+     * @param traceRms root mean square of the samples
+     * @param nanCount number of NaN samples
+     * @param dead True if the trace carries no signal
+     */
+    public void setStatistics(double traceMin, double traceMax, double traceMean, double traceRms, int nanCount, boolean dead) {
+        this.traceMin = traceMin;
+        this.traceMax = traceMax;
+        this.traceMean = traceMean;
+        this.traceRms = traceRms;
+        this.nanCount = nanCount;
+        this.dead = dead;
+    }
+
+    /**
+     * Derives trace statistics from the accumulated sums
+     */
+    private void finishStatistics(double min, double max, double sum, double sumSq, int nValid, int nans) {
+        nanCount = nans;
+        if (nValid == 0) {
+            traceMin = 0;
+            traceMax = 0;
+            traceMean = 0;
+            traceRms = 0;
+        } else {
+            traceMin = min;
+            traceMax = max;
+            traceMean = sum / nValid;
+            traceRms = Math.sqrt(sumSq / nValid);
         }
+        dead = (traceMin == 0 && traceMax == 0);
     }
 
     /**
@@ -0,0 +1,338 @@
+/**
+ * Seek-point indexes of compressed SEGY files
+ * Gzip files (single member with checkpoints, multiple members) are split and read back through
+ * SEGYInputFormat and TraceRecordReader, and must give the traces of the uncompressed file; zstd frame
+ * layouts are indexed from hand-built frames (raw and RLE blocks), and read back when the native zstd codec is
+ * available.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.NativeCodeLoader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedFrameIndexTest {
+
+    private static final int CROSSLINES = 40;
+    private static final int INLINES = 30;
+    private static final int SAMPLES = 250;
+    private static final int TRACES_PER_SPLIT = 100;
+    private static final long CHECKPOINT_SPACING = 64 * 1024;
+    private static final int ZSTD_MAGIC = 0xFD2FB528;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FileSystem fs;
+    private Path root;
+    private SEGYGenerator generator;
+    private byte[] segy;
+
+    @Before
+    public void generate() throws IOException {
+        fs = FileSystem.getLocal(new Configuration());
+        root = new Path(tmp.getRoot().getAbsolutePath());
+        generator = new SEGYGenerator(CROSSLINES, 1, SAMPLES, 5, ByteOrder.BIG_ENDIAN);
+        Path file = new Path(root, "plain/survey.sgy");
+        generator.generate(fs, file, INLINES);
+        segy = new byte[(int) fs.getFileStatus(file).getLen()];
+        try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(segy);
+        }
+    }
+
+    @Test
+    public void deflateDecoderResumesAtEveryBlock() throws IOException {
+        byte[] text = "dipping reflectors convolved with a Ricker wavelet".getBytes("US-ASCII");
+        // stored, fixed and dynamic Huffman blocks
+        checkDeflate(segy, Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        checkDeflate(text, Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        checkDeflate(segy, Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY);
+        checkDeflate(segy, Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        checkDeflate(segy, Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY);
+    }
+
+    private static void checkDeflate(byte[] data, int level, int strategy) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(data);
+        }
+        deflater.end();
+        byte[] stream = compressed.toByteArray();
+
+        DeflateDecoder decoder = new DeflateDecoder(new ByteArrayInputStream(stream));
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        List<long[]> boundaries = new ArrayList<long[]>();
+        List<byte[]> windows = new ArrayList<byte[]>();
+        byte[] buffer = new byte[8192];
+        int n;
+        do {
+            if (decoder.isBlockBoundary()) {
+                boundaries.add(new long[]{decoder.getBitsRead(), decoder.getBytesWritten()});
+                windows.add(decoder.getWindow());
+            }
+            n = decoder.read(buffer);
+            if (n > 0) {
+                decoded.write(buffer, 0, n);
+            }
+        } while (n >= 0);
+        assertTrue(decoder.isFinished());
+        assertEquals((stream.length * 8L + 7) / 8, (decoder.getBitsRead() + 7) / 8);
+        assertArrayEquals(data, decoded.toByteArray());
+
+        for (int i = 0; i < boundaries.size(); i++) {
+            long bit = boundaries.get(i)[0];
+            int offset = (int) boundaries.get(i)[1];
+            ByteArrayInputStream in = new ByteArrayInputStream(stream, (int) (bit >>> 3), stream.length);
+            DeflateDecoder resumed = new DeflateDecoder(in, (int) (bit & 7), windows.get(i));
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            while ((n = resumed.read(buffer)) >= 0) {
+                rest.write(buffer, 0, n);
+            }
+            assertArrayEquals("resumed at bit " + bit, Arrays.copyOfRange(data, offset, data.length), rest.toByteArray());
+        }
+    }
+
+    @Test
+    public void splitsSingleMemberGzipAtCheckpoints() throws Exception {
+        Path file = new Path(root, "gz/survey.sgy.gz");
+        try (OutputStream out = new GZIPOutputStream(fs.create(file))) {
+            out.write(segy);
+        }
+        List<InputSplit> splits = getSplits(new Path(root, "gz"));
+        assertTrue(splits.size() > 1);
+        for (InputSplit split : splits.subList(1, splits.size())) {
+            assertTrue(split.toString(), ((CompressedTraceSplit) split).getWindow() != null);
+        }
+        assertTrue(fs.exists(CompressedFrameIndex.indexPath(file)));
+        assertEquals(readTraces(new Path(root, "plain")), readTraces(new Path(root, "gz")));
+        // the cached index gives the same splits
+        assertEquals(splits.toString(), getSplits(new Path(root, "gz")).toString());
+    }
+
+    @Test
+    public void splitsMultiMemberGzip() throws Exception {
+        Path file = new Path(root, "members/survey.sgy.gz");
+        // checkpoint splits of the first member run into the second one
+        int[] members = {0, segy.length / 3, segy.length};
+        try (FSDataOutputStream out = fs.create(file)) {
+            for (int i = 0; i + 1 < members.length; i++) {
+                GZIPOutputStream member = new GZIPOutputStream(out);
+                member.write(segy, members[i], members[i + 1] - members[i]);
+                member.finish();
+            }
+        }
+        CompressedFrameIndex index = CompressedFrameIndex.loadOrBuild(fs, fs.getFileStatus(file), CHECKPOINT_SPACING);
+        assertEquals(segy.length, index.uncompressedLength());
+        assertEquals(members[1], index.uncompressedOffset(index.frameOf(members[1])));
+        assertFalse(index.isCheckpoint(index.frameOf(members[1])));
+        assertEquals(readTraces(new Path(root, "plain")), readTraces(new Path(root, "members")));
+    }
+
+    @Test
+    public void rejectsFilesWithoutSeekPoints() throws Exception {
+        Path file = new Path(root, "deflate/survey.sgy.deflate");
+        DefaultCodec codec = new DefaultCodec();
+        codec.setConf(new Configuration());
+        try (OutputStream out = codec.createOutputStream(fs.create(file))) {
+            out.write(segy);
+        }
+        try {
+            getSplits(new Path(root, "deflate"));
+            fail("zlib stream has no seek points");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Not supported compressed SEGY"));
+        }
+        assertFalse(fs.exists(CompressedFrameIndex.indexPath(file)));
+
+        Path zstd = new Path(root, "zstd/survey.sgy.zst");
+        writeZstd(zstd, new int[]{0, segy.length}, 0, false);
+        try {
+            CompressedFrameIndex.loadOrBuild(fs, fs.getFileStatus(zstd), CHECKPOINT_SPACING);
+            fail("zstd frame without content size has no seek points");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Not supported zstd frame without content size"));
+        }
+    }
+
+    @Test
+    public void indexesZstdFrames() throws Exception {
+        for (int fcsSize : new int[]{2, 4, 8}) {
+            // 2-byte content sizes hold 256-65791 bytes
+            int[] frames = frames((fcsSize == 2) ? 60000 : 250000);
+            for (boolean seekable : new boolean[]{false, true}) {
+                Path file = new Path(root, "zstd" + fcsSize + seekable + "/survey.sgy.zst");
+                long[] offsets = writeZstd(file, frames, fcsSize, seekable);
+                CompressedFrameIndex index = CompressedFrameIndex.loadOrBuild(fs, fs.getFileStatus(file), CHECKPOINT_SPACING);
+                assertEquals(segy.length, index.uncompressedLength());
+                assertEquals(frames.length - 1, index.size());
+                for (int i = 0; i < index.size(); i++) {
+                    assertEquals(offsets[i], index.compressedOffset(i));
+                    assertEquals(frames[i], index.uncompressedOffset(i));
+                    assertFalse(index.isCheckpoint(i));
+                }
+                assertEquals(2, index.frameOf(frames[2] + 1));
+                assertEquals(index.size() - 1, index.frameOf(segy.length - 1));
+            }
+        }
+    }
+
+    @Test
+    public void readsZstdFrames() throws Exception {
+        assumeTrue("native zstd codec", NativeCodeLoader.isNativeCodeLoaded() && NativeCodeLoader.buildSupportsZstd());
+        writeZstd(new Path(root, "zstdread/survey.sgy.zst"), frames(250000), 4, true);
+        assertTrue(getSplits(new Path(root, "zstdread")).size() > 1);
+        assertEquals(readTraces(new Path(root, "plain")), readTraces(new Path(root, "zstdread")));
+    }
+
+    /**
+     * Returns frame boundaries: the file header, then frames of the given size
+     */
+    private int[] frames(int size) {
+        int[] frames = new int[2 + (segy.length - SEGYFileHeader.SIZE + size - 1) / size];
+        for (int i = 1; i < frames.length; i++) {
+            frames[i] = Math.min(segy.length, SEGYFileHeader.SIZE + (i - 1) * size);
+        }
+        return frames;
+    }
+
+    private Configuration conf() {
+        Configuration conf = new Configuration();
+        conf.setLong(SEGYInputFormat.SPLIT_SIZE_SETTING, (long) TRACES_PER_SPLIT * generator.getTraceSize());
+        conf.setLong(SEGYInputFormat.GZIP_CHECKPOINT_SPACING_SETTING, CHECKPOINT_SPACING);
+        return conf;
+    }
+
+    private List<InputSplit> getSplits(Path input) throws IOException {
+        Job job = Job.getInstance(conf());
+        FileInputFormat.setInputPaths(job, input);
+        return new SEGYInputFormat().getSplits(job);
+    }
+
+    /**
+     * Reads all splits of the input, one line per trace: header ids and a hash of the samples
+     */
+    private List<String> readTraces(Path input) throws Exception {
+        Job job = Job.getInstance(conf());
+        FileInputFormat.setInputPaths(job, input);
+        SEGYInputFormat format = new SEGYInputFormat();
+        List<String> traces = new ArrayList<String>();
+        for (InputSplit split : format.getSplits(job)) {
+            TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+            try (RecordReader<TraceHeaderWritable, TraceWritable> reader = format.createRecordReader(split, context)) {
+                reader.initialize(split, context);
+                while (reader.nextKeyValue()) {
+                    TraceHeaderWritable header = reader.getCurrentKey();
+                    TraceWritable trace = reader.getCurrentValue();
+                    traces.add(header.getTraceID() + ":" + header.getILineID() + ":" + header.getXLineID() + ":"
+                            + Arrays.hashCode(Arrays.copyOf(trace.getSamples(), trace.getTraceLength())));
+                }
+            }
+        }
+        assertEquals(INLINES * CROSSLINES, traces.size());
+        return traces;
+    }
+
+    /**
+     * Writes the SEGY as zstd frames of raw blocks (and an RLE block per frame), valid for any zstd decoder
+     * @param frames uncompressed frame boundaries
+     * @param fcsSize size of the frame content size field, 0 for none
+     * @param seekable appends the seek table of the seekable format
+     * @return compressed offsets of the frames
+     */
+    private long[] writeZstd(Path file, int[] frames, int fcsSize, boolean seekable) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long[] offsets = new long[frames.length - 1];
+        ByteBuffer table = ByteBuffer.allocate(offsets.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i + 1 < frames.length; i++) {
+            offsets[i] = out.size();
+            if (i == 1 && !seekable) {
+                // skippable frames between data frames are skipped by the index
+                writeLE(out, 0x184D2A50, 4);
+                writeLE(out, 3, 4);
+                out.write(new byte[3]);
+                offsets[i] = out.size();
+            }
+            int from = frames[i];
+            int to = frames[i + 1];
+            int[] fcsFlags = {0, 0, 1, 0, 2, 0, 0, 0, 3};
+            // with content size: single segment; without it: window descriptor of 8 MB
+            boolean singleSegment = fcsSize > 0;
+            writeLE(out, ZSTD_MAGIC, 4);
+            out.write((fcsFlags[fcsSize] << 6) | (singleSegment ? 0x20 : 0));
+            if (!singleSegment) {
+                out.write((23 - 10) << 3);
+            }
+            if (fcsSize > 0) {
+                writeLE(out, (fcsSize == 2) ? to - from - 256 : to - from, fcsSize);
+            }
+            // RLE block of the first byte, then raw blocks of the rest
+            writeLE(out, (1 << 1) | (1 << 3), 3);
+            out.write(segy[from]);
+            for (int pos = from + 1; pos < to; ) {
+                int size = Math.min(128 * 1024, to - pos);
+                boolean last = pos + size == to;
+                writeLE(out, (last ? 1 : 0) | (size << 3), 3);
+                out.write(segy, pos, size);
+                pos += size;
+            }
+            table.putInt((int) (out.size() - offsets[i]));
+            table.putInt(to - from);
+        }
+        if (seekable) {
+            writeLE(out, 0x184D2A5E, 4);
+            writeLE(out, table.capacity() + 9, 4);
+            out.write(table.array());
+            writeLE(out, offsets.length, 4);
+            out.write(0);
+            writeLE(out, 0x8F92EAB1, 4);
+        }
+        try (FSDataOutputStream stream = fs.create(file)) {
+            stream.write(out.toByteArray());
+        }
+        return offsets;
+    }
+
+    private static void writeLE(ByteArrayOutputStream out, long value, int size) {
+        for (int i = 0; i < size; i++) {
+            out.write((int) (value >>> (8 * i)) & 0xFF);
+        }
+    }
+}
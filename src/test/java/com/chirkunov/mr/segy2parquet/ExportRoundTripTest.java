@@ -0,0 +1,140 @@
+/**
+ * Round trip of a synthetic SEGY file through ConverterJob and ExportJob on the local job runner
+ * The input is converted in several splits, so the Parquet parts (and the export splits) differ in size
+ * and the export tasks run in a different order than the input; the exported traces and binary header
+ * must still match the source file byte for byte, including the trace header fields which have no column.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportRoundTripTest {
+
+    private static final int CROSSLINES = 40;
+    private static final int INLINES = 30;
+    private static final int SAMPLES = 250;
+    // IEEE float samples survive the conversion to doubles and back unchanged
+    private static final int FORMAT = 5;
+    private static final int TRACES_PER_SPLIT = 170;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void exportRestoresTracesInInputOrder() throws Exception {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Path root = new Path(tmp.getRoot().getAbsolutePath());
+        Path input = new Path(root, "segy");
+        SEGYGenerator generator = new SEGYGenerator(CROSSLINES, 1, SAMPLES, FORMAT, ByteOrder.BIG_ENDIAN);
+        long nTraces = generator.generate(fs, new Path(input, "survey.sgy"), INLINES);
+        // shorter than a file header: no traces, no split
+        try (FSDataOutputStream out = fs.create(new Path(input, "short.sgy"))) {
+            out.write(new byte[100]);
+        }
+
+        Configuration convertConf = new Configuration();
+        convertConf.setLong(SEGYInputFormat.SPLIT_SIZE_SETTING, (long) TRACES_PER_SPLIT * generator.getTraceSize());
+        ConverterJob converter = new ConverterJob();
+        assertEquals(0, ToolRunner.run(convertConf, converter,
+                new String[]{input.toString(), new Path(root, "parquet").toString()}));
+        FileStatus[] parts = fs.globStatus(new Path(converter.getOutputPath(), "part-*"));
+        assertEquals((nTraces + TRACES_PER_SPLIT - 1) / TRACES_PER_SPLIT, parts.length);
+
+        Path exported = new Path(root, "exported.sgy");
+        assertEquals(0, ToolRunner.run(new Configuration(), new ExportJob(),
+                new String[]{converter.getOutputPath().toString(), exported.toString()}));
+
+        byte[] source = read(fs, new Path(input, "survey.sgy"));
+        byte[] target = read(fs, exported);
+        Configuration tableConf = new Configuration();
+        tableConf.set(SurveyHeaderTable.TABLE_SETTING, new Path(converter.getOutputPath(), SurveyHeaderTable.TABLE_PATH).toString());
+        Map<String, byte[]> headers = SurveyHeaderTable.read(tableConf);
+        assertFalse(fs.exists(new Path(converter.getOutputPath(), SurveyHeaderTable.STAGING_PATH).getParent()));
+        assertEquals(1, headers.size());
+        assertArrayEquals(Arrays.copyOf(source, SEGYFileHeader.SIZE), headers.values().iterator().next());
+        assertEquals(source.length, target.length);
+        assertEquals(nTraces, (target.length - SEGYFileHeader.SIZE) / generator.getTraceSize());
+        // the textual header is regenerated, the binary header comes from the Parquet footer
+        assertArrayEquals(SEGYFileHeader.binaryHeader(source, ByteOrder.BIG_ENDIAN).values().toArray(),
+                SEGYFileHeader.binaryHeader(target, ByteOrder.BIG_ENDIAN).values().toArray());
+        for (int offset = SEGYFileHeader.SIZE; offset < source.length; offset += generator.getTraceSize()) {
+            int end = offset + generator.getTraceSize();
+            assertTrue("trace at " + offset + " differs",
+                    Arrays.equals(Arrays.copyOfRange(source, offset, end), Arrays.copyOfRange(target, offset, end)));
+        }
+    }
+
+    @Test
+    public void exportKeepsTraceHeaderFieldsWithoutColumns() throws Exception {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            FileSystem fs = FileSystem.getLocal(new Configuration());
+            Path root = new Path(tmp.newFolder().getAbsolutePath());
+            Path source = new Path(root, "segy/survey.sgy");
+            SEGYGenerator generator = new SEGYGenerator(CROSSLINES, 1, SAMPLES, FORMAT, order);
+            generator.generate(fs, source, 3);
+            // populate trace header fields which have no column
+            byte[] bytes = read(fs, source);
+            for (int offset = SEGYFileHeader.SIZE; offset < bytes.length; offset += generator.getTraceSize()) {
+                ByteBuffer header = ByteBuffer.wrap(bytes, offset, SEGYInputFormat.TRACE_HEADER_SIZE).slice().order(order);
+                header.putShort(28, (short) 1);
+                header.putShort(104, (short) -offset);
+                header.putInt(180, offset * 7);
+                header.putInt(184, -offset);
+                header.put(234, (byte) 'S');
+            }
+            try (FSDataOutputStream out = fs.create(source, true)) {
+                out.write(bytes);
+            }
+
+            ConverterJob converter = new ConverterJob();
+            assertEquals(0, ToolRunner.run(new Configuration(), converter,
+                    new String[]{source.getParent().toString(), new Path(root, "parquet").toString()}));
+            Path exported = new Path(root, "exported.sgy");
+            assertEquals(0, ToolRunner.run(new Configuration(), new ExportJob(),
+                    new String[]{converter.getOutputPath().toString(), exported.toString()}));
+
+            byte[] target = read(fs, exported);
+            assertEquals(bytes.length, target.length);
+            for (int offset = SEGYFileHeader.SIZE; offset < bytes.length; offset += generator.getTraceSize()) {
+                ByteBuffer header = ByteBuffer.wrap(target, offset, SEGYInputFormat.TRACE_HEADER_SIZE).slice();
+                assertEquals(1, header.getShort(28));
+                assertEquals((short) -offset, header.getShort(104));
+                assertEquals(offset * 7, header.getInt(180));
+                assertEquals(-offset, header.getInt(184));
+                assertEquals('S', header.get(234));
+                if (order == ByteOrder.BIG_ENDIAN) {
+                    assertArrayEquals(Arrays.copyOfRange(bytes, offset, offset + SEGYInputFormat.TRACE_HEADER_SIZE),
+                            Arrays.copyOfRange(target, offset, offset + SEGYInputFormat.TRACE_HEADER_SIZE));
+                }
+            }
+        }
+    }
+
+    private static byte[] read(FileSystem fs, Path file) throws IOException {
+        byte[] bytes = new byte[(int) fs.getFileStatus(file).getLen()];
+        try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(bytes);
+        }
+        return bytes;
+    }
+}
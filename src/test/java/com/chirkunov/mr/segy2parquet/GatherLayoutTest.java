@@ -0,0 +1,92 @@
+/**
+ * Gather layout on the local job runner: two input files with the same field record numbers
+ * A gather spanning both files must be one row, its traces ordered by source file and trace id,
+ * and the header columns hoisted to the gather row must restore every trace's own values.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GatherLayoutTest {
+
+    private static final int CROSSLINES = 12;
+    private static final int OFFSETS = 2;
+    private static final int INLINES = 3;
+    private static final int SAMPLES = 50;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void gatherSpansInputFiles() throws Exception {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Path root = new Path(tmp.getRoot().getAbsolutePath());
+        Path input = new Path(root, "segy");
+        SEGYGenerator generator = new SEGYGenerator(CROSSLINES, OFFSETS, SAMPLES, 5, ByteOrder.BIG_ENDIAN);
+        // both files hold the same shots (field record numbers = inlines)
+        generator.generate(fs, new Path(input, "a.sgy"), INLINES);
+        generator.generate(fs, new Path(input, "b.sgy"), INLINES);
+
+        Configuration conf = new Configuration();
+        conf.set(TraceGroupWriteSupport.OUTPUT_LAYOUT_SETTING, TraceGroupWriteSupport.LAYOUT_GATHER);
+        ConverterJob converter = new ConverterJob();
+        assertEquals(0, ToolRunner.run(conf, converter, new String[]{input.toString(), new Path(root, "parquet").toString()}));
+
+        Set<Integer> gathers = new HashSet<Integer>();
+        for (FileStatus part : fs.globStatus(new Path(converter.getOutputPath(), "part-*"))) {
+            try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), part.getPath()).build()) {
+                for (Group gather = reader.read(); gather != null; gather = reader.read()) {
+                    int gatherID = gather.getInteger("gatherID", 0);
+                    assertTrue("gather " + gatherID + " is split", gathers.add(gatherID));
+                    assertEquals(2 * CROSSLINES * OFFSETS, gather.getInteger("traceCount", 0));
+                    assertTrue(gather.getString("sourceFile", 0).endsWith("a.sgy"));
+                    assertEquals(gatherID, gather.getInteger("fieldRecordNumberID", 0));
+                    for (int i = 0; i < 2 * CROSSLINES * OFFSETS; i++) {
+                        Group trace = gather.getGroup("traces", i);
+                        boolean second = i >= CROSSLINES * OFFSETS;
+                        int n = i % (CROSSLINES * OFFSETS);
+                        // file a first, then file b, each in trace order
+                        assertEquals((gatherID - 1) * CROSSLINES * OFFSETS + n + 1, trace.getInteger("traceID", 0));
+                        assertEquals(second, trace.getFieldRepetitionCount("sourceFile") > 0);
+                        // constant within the shot: only on the gather row
+                        assertEquals(0, trace.getFieldRepetitionCount("fieldRecordNumberID"));
+                        assertEquals(0, trace.getFieldRepetitionCount("srcY"));
+                        assertEquals(0, trace.getFieldRepetitionCount("sI"));
+                        // varying within the shot: kept where the trace differs from the gather row
+                        assertEquals(n / OFFSETS + 1, value(gather, trace, "xlineID"));
+                        assertEquals((n / OFFSETS + 1) * 25, value(gather, trace, "srcX"));
+                        assertEquals(gatherID, value(gather, trace, "ilineID"));
+                        assertEquals((gatherID - 1) * CROSSLINES + n / OFFSETS + 1, value(gather, trace, "cdpID"));
+                        assertFalse(trace.getFieldRepetitionCount("traceData") == 0);
+                    }
+                }
+            }
+        }
+        assertEquals(INLINES, gathers.size());
+    }
+
+    /**
+     * Returns the trace's own value of a hoisted column, or the gather's one
+     */
+    private static int value(Group gather, Group trace, String field) {
+        return (trace.getFieldRepetitionCount(field) > 0) ? trace.getInteger(field, 0) : gather.getInteger(field, 0);
+    }
+}
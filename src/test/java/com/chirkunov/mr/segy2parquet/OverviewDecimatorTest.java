@@ -0,0 +1,37 @@
+/**
+ * Sample interval of the decimated traces
+ * The SEGY sample interval is unsigned 16 bits: intervals up to 65535 must survive the time decimation
+ * and reach the sI column unsigned, larger ones must be rejected instead of wrapping.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class OverviewDecimatorTest {
+
+    @Test
+    public void sampleIntervalStaysUnsigned() {
+        TraceWritable out = new TraceWritable();
+        new OverviewDecimator(1, 16).decimate(trace(4000), out);
+        assertEquals(64000, out.getTraceHeader().getSampleInterval());
+        assertEquals(64000, new TraceGroup().set(out.getTraceHeader(), out, null).getInteger(TraceGroupWriteSupport.FIELD_SI, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sampleIntervalOverflowIsRejected() {
+        new OverviewDecimator(1, 32).decimate(trace(4000), new TraceWritable());
+    }
+
+    private static TraceWritable trace(int sI) {
+        TraceWritable tw = new TraceWritable();
+        tw.getTraceHeader().setField("sI", sI);
+        double[] samples = tw.resizeTraceData(100);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = Math.sin(i / 5.0);
+        }
+        tw.updateStatistics();
+        return tw;
+    }
+}
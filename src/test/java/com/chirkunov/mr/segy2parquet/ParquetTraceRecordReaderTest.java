@@ -0,0 +1,86 @@
+/**
+ * Statistics columns of ParquetTraceRecordReader under column projection
+ * A projected statistics column must come from the file even when the other ones are not projected,
+ * and statistics columns which can be neither read nor recomputed must stay unset instead of reading as 0.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParquetTraceRecordReaderTest {
+
+    private static final int CROSSLINES = 20;
+    private static final int INLINES = 5;
+    private static final int SAMPLES = 100;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void projectedStatisticsAreReadOneByOne() throws Exception {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Path root = new Path(tmp.getRoot().getAbsolutePath());
+        Path input = new Path(root, "segy");
+        new SEGYGenerator(CROSSLINES, 1, SAMPLES, 5, ByteOrder.BIG_ENDIAN).generate(fs, new Path(input, "survey.sgy"), INLINES);
+        ConverterJob converter = new ConverterJob();
+        assertEquals(0, ToolRunner.run(new Configuration(), converter,
+                new String[]{input.toString(), new Path(root, "parquet").toString()}));
+        FileStatus part = fs.globStatus(new Path(converter.getOutputPath(), "part-*"))[0];
+
+        List<double[]> all = read(part);
+        List<double[]> maxOnly = read(part, "traceID", "traceMax");
+        List<double[]> withSamples = read(part, "traceID", "traceData", "traceRms");
+        assertEquals(CROSSLINES * INLINES, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertTrue(all.get(i)[1] != 0);
+            assertEquals(all.get(i)[1], maxOnly.get(i)[1], 0);
+            assertTrue(Double.isNaN(maxOnly.get(i)[0]));
+            assertTrue(Double.isNaN(maxOnly.get(i)[2]));
+            assertEquals(-1, maxOnly.get(i)[3], 0);
+            // recomputed from the samples
+            for (int s = 0; s < 4; s++) {
+                assertEquals(all.get(i)[s], withSamples.get(i)[s], 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Returns traceMin, traceMax, traceRms and nanCount of every trace of the part, reading the given columns
+     */
+    private static List<double[]> read(FileStatus part, String... columns) throws Exception {
+        Configuration conf = new Configuration();
+        if (columns.length > 0) {
+            conf.setStrings(ParquetTraceInputFormat.COLUMNS_SETTING, columns);
+        }
+        List<double[]> statistics = new ArrayList<double[]>();
+        ParquetTraceRecordReader reader = new ParquetTraceRecordReader();
+        try {
+            reader.initialize(new FileSplit(part.getPath(), 0, part.getLen(), null),
+                    new TaskAttemptContextImpl(conf, new TaskAttemptID()));
+            while (reader.nextKeyValue()) {
+                TraceWritable tw = reader.getCurrentValue();
+                statistics.add(new double[]{tw.getTraceMin(), tw.getTraceMax(), tw.getTraceRms(), tw.getNanCount()});
+            }
+        } finally {
+            reader.close();
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Row view of the trace layout against the schema and the SimpleGroup rows of ConverterJob.fillGroup
+ * Both rows are built by field index (see TraceGroupWriteSupport), so a trace must give the same values in both,
+ * with lossless and with quantized samples.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.schema.MessageType;
+import org.junit.Test;
+
+public class TraceGroupTest {
+
+    private static final int SAMPLES = 500;
+    // IEEE float samples
+    private static final int FORMAT = 5;
+
+    @Test
+    public void fieldIndexesMatchSchema() {
+        MessageType schema = TraceGroupWriteSupport.getSchema();
+        assertEquals(21, schema.getFieldCount());
+        assertEquals(TraceGroupWriteSupport.FIELD_TRACE_ID, schema.getFieldIndex("traceID"));
+        assertEquals(TraceGroupWriteSupport.FIELD_FIELD_RECORD_NUMBER_ID, schema.getFieldIndex("fieldRecordNumberID"));
+        assertEquals(TraceGroupWriteSupport.FIELD_DIST_SRG, schema.getFieldIndex("distSRG"));
+        assertEquals(TraceGroupWriteSupport.FIELD_SRC_X, schema.getFieldIndex("srcX"));
+        assertEquals(TraceGroupWriteSupport.FIELD_SRC_Y, schema.getFieldIndex("srcY"));
+        assertEquals(TraceGroupWriteSupport.FIELD_SI, schema.getFieldIndex("sI"));
+        assertEquals(TraceGroupWriteSupport.FIELD_ILINE_ID, schema.getFieldIndex("ilineID"));
+        assertEquals(TraceGroupWriteSupport.FIELD_XLINE_ID, schema.getFieldIndex("xlineID"));
+        assertEquals(TraceGroupWriteSupport.FIELD_TRACE_DATA, schema.getFieldIndex("traceData"));
+        assertEquals(TraceGroupWriteSupport.FIELD_TRACE_MIN, schema.getFieldIndex("traceMin"));
+        assertEquals(TraceGroupWriteSupport.FIELD_TRACE_MAX, schema.getFieldIndex("traceMax"));
+        assertEquals(TraceGroupWriteSupport.FIELD_TRACE_MEAN, schema.getFieldIndex("traceMean"));
+        assertEquals(TraceGroupWriteSupport.FIELD_TRACE_RMS, schema.getFieldIndex("traceRms"));
+        assertEquals(TraceGroupWriteSupport.FIELD_NAN_COUNT, schema.getFieldIndex("nanCount"));
+        assertEquals(TraceGroupWriteSupport.FIELD_DEAD, schema.getFieldIndex("dead"));
+        assertEquals(TraceGroupWriteSupport.FIELD_QUANT_BITS, schema.getFieldIndex("quantBits"));
+        assertEquals(TraceGroupWriteSupport.FIELD_QUANT_SCALE, schema.getFieldIndex("quantScale"));
+        assertEquals(TraceGroupWriteSupport.FIELD_QUANT_OFFSET, schema.getFieldIndex("quantOffset"));
+        assertEquals(TraceGroupWriteSupport.FIELD_TRACE_DATA_Q, schema.getFieldIndex("traceDataQ"));
+        assertEquals(TraceGroupWriteSupport.FIELD_CDP_ID, schema.getFieldIndex("cdpID"));
+        assertEquals(TraceGroupWriteSupport.FIELD_TRACE_HEADER, schema.getFieldIndex("traceHeader"));
+    }
+
+    @Test
+    public void rowViewMatchesFilledGroup() throws Exception {
+        TraceWritable tw = trace();
+        assertSameRow(ConverterJob.toGroup(tw.getTraceHeader(), tw, null),
+                new TraceGroup().set(tw.getTraceHeader(), tw, null));
+        TraceQuantizer quantizer = TraceQuantizer.forEncoding("int16", 0.01);
+        Group filled = ConverterJob.toGroup(tw.getTraceHeader(), tw, quantizer);
+        assertEquals(1, filled.getFieldRepetitionCount(TraceGroupWriteSupport.FIELD_TRACE_DATA_Q));
+        assertSameRow(filled, new TraceGroup().set(tw.getTraceHeader(), tw, quantizer));
+    }
+
+    private static void assertSameRow(Group expected, Group actual) {
+        for (int field = 0; field < expected.getType().getFieldCount(); field++) {
+            String name = expected.getType().getFieldName(field);
+            assertEquals(name, expected.getFieldRepetitionCount(field), actual.getFieldRepetitionCount(field));
+            for (int i = 0; i < expected.getFieldRepetitionCount(field); i++) {
+                if (field == TraceGroupWriteSupport.FIELD_TRACE_DATA_Q || field == TraceGroupWriteSupport.FIELD_TRACE_HEADER) {
+                    // reused and constant binaries print differently
+                    assertArrayEquals(name, expected.getBinary(field, i).getBytes(), actual.getBinary(field, i).getBytes());
+                } else {
+                    assertEquals(name, expected.getValueToString(field, i), actual.getValueToString(field, i));
+                }
+            }
+        }
+    }
+
+    private static TraceWritable trace() throws Exception {
+        ByteBuffer bytes = ByteBuffer.allocate(SEGYInputFormat.TRACE_HEADER_SIZE + SAMPLES * 4).order(ByteOrder.BIG_ENDIAN);
+        // distinct values in the header words of the trace columns
+        for (int offset = 0; offset + 4 <= SEGYInputFormat.TRACE_HEADER_SIZE; offset += 4) {
+            bytes.putInt(offset, offset + 1);
+        }
+        bytes.putShort(114, (short) SAMPLES);
+        for (int i = 0; i < SAMPLES; i++) {
+            bytes.putFloat(SEGYInputFormat.TRACE_HEADER_SIZE + i * 4, (float) (1000 * Math.sin(i / 10.0)));
+        }
+        TraceWritable tw = new TraceWritable();
+        tw.set(bytes.array(), FORMAT, SAMPLES);
+        return tw;
+    }
+}
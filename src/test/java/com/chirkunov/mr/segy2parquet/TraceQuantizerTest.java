@@ -0,0 +1,65 @@
+/**
+ * Error bound of TraceQuantizer: traces are quantized while the RMS error stays within the bound
+ * relative to the trace RMS amplitude, and fall back to doubles otherwise, at the default bound.
+ */
+package com.chirkunov.mr.segy2parquet;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TraceQuantizerTest {
+
+    private static final int SAMPLES = 2000;
+
+    @Test
+    public void quantizesStationaryTrace() {
+        double[] samples = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = 1000 * Math.sin(i * 0.3);
+        }
+        assertWithinBound(TraceQuantizer.forEncoding("int16", ConverterJob.DEFAULT_QUANT_MAX_ERROR), samples);
+        assertWithinBound(TraceQuantizer.forEncoding("int8", ConverterJob.DEFAULT_QUANT_MAX_ERROR), samples);
+    }
+
+    @Test
+    public void rejectsDecayingTraceInInt8() {
+        double[] samples = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = 1000 * Math.exp(-i / 50.0) * Math.sin(i * 0.3);
+        }
+        // the int8 step is coarse against the weak tail which holds most of the samples
+        TraceQuantizer int8 = TraceQuantizer.forEncoding("int8", ConverterJob.DEFAULT_QUANT_MAX_ERROR);
+        assertFalse(int8.quantize(samples, SAMPLES, min(samples), max(samples), 0));
+        assertWithinBound(TraceQuantizer.forEncoding("int16", ConverterJob.DEFAULT_QUANT_MAX_ERROR), samples);
+    }
+
+    private static void assertWithinBound(TraceQuantizer quantizer, double[] samples) {
+        assertTrue(quantizer.quantize(samples, SAMPLES, min(samples), max(samples), 0));
+        double[] decoded = TraceQuantizer.decode(quantizer.getBytes(), quantizer.getBits(), quantizer.getScale(), quantizer.getOffset());
+        double signal = 0;
+        double error = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            signal += samples[i] * samples[i];
+            error += (decoded[i] - samples[i]) * (decoded[i] - samples[i]);
+        }
+        assertTrue(Math.sqrt(error / signal) <= ConverterJob.DEFAULT_QUANT_MAX_ERROR);
+    }
+
+    private static double min(double[] samples) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double v : samples) {
+            min = Math.min(min, v);
+        }
+        return min;
+    }
+
+    private static double max(double[] samples) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double v : samples) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+}